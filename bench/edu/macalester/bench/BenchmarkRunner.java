@@ -0,0 +1,76 @@
+package edu.macalester.bench;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs every benchmark in this package without a display, and prints one line per benchmark
+ * with its name and nanoseconds per operation.
+ * <p>
+ * Arguments:
+ * <ul>
+ *   <li>{@code -o file}: also write the results to the given file as tab-separated values,
+ *       for comparing one release against the next.</li>
+ *   <li>any other argument: only run benchmarks whose names contain it.</li>
+ * </ul>
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        
+        String outputFile = null;
+        List<String> filters = new ArrayList<String>();
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("-o") && i + 1 < args.length)
+                outputFile = args[++i];
+            else
+                filters.add(args[i]);
+        }
+        
+        PrintWriter out = null;
+        if(outputFile != null)
+            out = new PrintWriter(new FileWriter(outputFile));
+        try {
+            for(Microbenchmark benchmark : allBenchmarks()) {
+                if(!matches(benchmark.getName(), filters))
+                    continue;
+                double nanosPerOp = benchmark.measure();
+                System.out.println(Microbenchmark.formatResult(benchmark.getName(), nanosPerOp));
+                if(out != null)
+                    out.println(benchmark.getName() + "\t" + nanosPerOp);
+            }
+        } finally {
+            if(out != null)
+                out.close();
+        }
+    }
+    
+    private static List<Microbenchmark> allBenchmarks() {
+        List<Microbenchmark> benchmarks = new ArrayList<Microbenchmark>();
+        benchmarks.add(new TurtleForwardBenchmark(0));
+        benchmarks.add(new TurtleForwardBenchmark(1));
+        benchmarks.add(new TurtleForwardBenchmark(4));
+        benchmarks.add(new TurtleRightBenchmark());
+        benchmarks.add(new TurtleExecuteBenchmark(false));
+        benchmarks.add(new TurtleExecuteBenchmark(true));
+        benchmarks.add(new PDFRendererBenchmark());
+        benchmarks.add(new SVGRendererBenchmark());
+        benchmarks.add(new PaperStrokeBenchmark(false));
+        benchmarks.add(new PaperStrokeBenchmark(true));
+        benchmarks.addAll(Arrays.asList(GeneratorBenchmark.all()));
+        return benchmarks;
+    }
+    
+    private static boolean matches(String name, List<String> filters) {
+        if(filters.isEmpty())
+            return true;
+        for(String filter : filters)
+            if(name.contains(filter))
+                return true;
+        return false;
+    }
+}
@@ -0,0 +1,143 @@
+package edu.macalester.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.macalester.generator.ConstantGenerator;
+import edu.macalester.generator.Generator;
+import edu.macalester.generator.PrimeGenerator;
+import edu.macalester.generator.SineGenerator;
+import edu.macalester.generator.SteppingGenerator;
+
+/**
+ * Measures the cost of pulling values from a {@link Generator}: with {@link Generator#next()},
+ * with a {@link Generator#skip(int) skip()} followed by next() as {@code Spiral} does, or in bulk
+ * with {@link Generator#next(double[], int, int)}.
+ * A fresh generator is created for each round, so that generators whose cost depends on
+ * how far they have advanced are measured consistently.
+ */
+public class GeneratorBenchmark extends Microbenchmark {
+    private static final int BULK_SIZE = 1000;
+    
+    /**
+     * Creates the generator under test.
+     */
+    public static abstract class Factory {
+        private final String name;
+        private final int skipSize, opsPerRound;
+        
+        public Factory(String name, int skipSize, int opsPerRound) {
+            this.name = name;
+            this.skipSize = skipSize;
+            this.opsPerRound = opsPerRound;
+        }
+        
+        public abstract Generator create();
+    }
+    
+    private final Factory factory;
+    private final int skipSize;
+    private final boolean bulk;
+    private final double[] buffer = new double[BULK_SIZE];
+    
+    /**
+     * Benchmarks next(), preceded by skip(skipSize) if skipSize is positive.
+     */
+    public GeneratorBenchmark(Factory factory, int skipSize) {
+        super(factory.name + (skipSize > 0 ? ".skip(" + skipSize + ")+next" : ".next"));
+        this.factory = factory;
+        this.skipSize = skipSize;
+        this.bulk = false;
+    }
+    
+    /**
+     * Benchmarks filling arrays of values with next(double[], int, int).
+     */
+    public GeneratorBenchmark(Factory factory) {
+        super(factory.name + ".next(double[" + BULK_SIZE + "])");
+        this.factory = factory;
+        this.skipSize = 0;
+        this.bulk = true;
+    }
+    
+    @Override
+    protected int getOpsPerRound() {
+        return factory.opsPerRound;
+    }
+    
+    @Override
+    protected double run(int numOps) {
+        Generator gen = factory.create();
+        double total = 0;
+        if(bulk) {
+            for(int n = 0; n < numOps; n += BULK_SIZE) {
+                gen.next(buffer, 0, Math.min(BULK_SIZE, numOps - n));
+                total += buffer[0];
+            }
+        } else {
+            for(int n = 0; n < numOps; n++) {
+                if(skipSize > 0)
+                    gen.skip(skipSize);
+                total += gen.next();
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * Returns next(), skip() and bulk benchmarks for each built-in generator, and for the nested
+     * generators used by {@code Spiral}.
+     */
+    public static Microbenchmark[] all() {
+        List<Microbenchmark> benchmarks = new ArrayList<Microbenchmark>();
+        for(Factory factory : factories()) {
+            benchmarks.add(new GeneratorBenchmark(factory, 0));
+            benchmarks.add(new GeneratorBenchmark(factory, factory.skipSize));
+            benchmarks.add(new GeneratorBenchmark(factory));
+        }
+        return benchmarks.toArray(new Microbenchmark[benchmarks.size()]);
+    }
+    
+    private static Factory[] factories() {
+        return new Factory[] {
+            new Factory("ConstantGenerator", 1000, 1000000) {
+                public Generator create() {
+                    return new ConstantGenerator(50);
+                }
+            },
+            new Factory("SteppingGenerator", 1000, 1000000) {
+                public Generator create() {
+                    return new SteppingGenerator(0, 0.0004);
+                }
+            },
+            new Factory("SineGenerator", 1000, 1000000) {
+                public Generator create() {
+                    return new SineGenerator(0, 0.0004, 5);
+                }
+            },
+            new Factory("PrimeGenerator", 2, 100000) {
+                public Generator create() {
+                    return new PrimeGenerator(2);
+                }
+            },
+            new Factory("Spiral step (sine of sine)", 2, 1000000) {
+                public Generator create() {
+                    return new SineGenerator(
+                        new ConstantGenerator(1),
+                        new SineGenerator(0, 0.00004, 1500));
+                }
+            },
+            new Factory("Spiral angle (sine of sine)", 2, 1000000) {
+                public Generator create() {
+                    return new SineGenerator(
+                        new SineGenerator(0, 0.0004, 5),
+                        new ConstantGenerator(180));
+                }
+            },
+        };
+    }
+    
+    public static void main(String[] args) {
+        runAll(all());
+    }
+}
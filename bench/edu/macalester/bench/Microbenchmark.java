@@ -0,0 +1,77 @@
+package edu.macalester.bench;
+
+/**
+ * A minimal timing harness for measuring the cost of small operations. Each benchmark runs
+ * for a warmup period so the JIT can compile it, then for a number of timed rounds; the
+ * fastest round is reported in nanoseconds per operation.
+ * <p>
+ * Subclasses implement {@link #run(int)}, which performs the operation the given number of
+ * times and returns a value derived from the results, so that the JIT cannot discard the work.
+ */
+public abstract class Microbenchmark {
+    private static final long WARMUP_NANOS = 1000000000L;
+    private static final int ROUNDS = 5;
+    private static final int OPS_PER_ROUND = 1000000;
+    
+    private static volatile double sink;
+    
+    private final String name;
+    
+    public Microbenchmark(String name) {
+        this.name = name;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Called once before warmup. Override to build the state the benchmark needs.
+     */
+    protected void setUp() { }
+    
+    /**
+     * Performs the operation being measured numOps times.
+     */
+    protected abstract double run(int numOps);
+    
+    /**
+     * The number of operations in each timed round. Override for operations that are much
+     * slower than a microsecond.
+     */
+    protected int getOpsPerRound() {
+        return OPS_PER_ROUND;
+    }
+    
+    /**
+     * Warms up, then times the benchmark and returns the best observed nanoseconds per operation.
+     */
+    public double measure() {
+        setUp();
+        int ops = getOpsPerRound();
+        
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while(System.nanoTime() < warmupEnd)
+            sink += run(ops);
+        
+        double best = Double.POSITIVE_INFINITY;
+        for(int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            sink += run(ops);
+            best = Math.min(best, (System.nanoTime() - start) / (double) ops);
+        }
+        return best;
+    }
+    
+    /**
+     * Measures each of the given benchmarks in turn and prints the results.
+     */
+    public static void runAll(Microbenchmark... benchmarks) {
+        for(Microbenchmark benchmark : benchmarks)
+            System.out.println(formatResult(benchmark.getName(), benchmark.measure()));
+    }
+    
+    static String formatResult(String name, double nanosPerOp) {
+        return String.format("%-48s %12.2f ns/op", name, nanosPerOp);
+    }
+}
@@ -0,0 +1,52 @@
+package edu.macalester.bench;
+
+import java.awt.Color;
+
+import edu.macalester.turtle.TurtlePaper;
+
+/**
+ * Measures the cost of stroking spiral segments onto the offscreen {@link TurtlePaper} that
+ * {@link edu.macalester.turtle.TurtleProgram} draws on, either one segment at a time or batched
+ * into polylines.
+ */
+public class PaperStrokeBenchmark extends Microbenchmark {
+    private final boolean batched;
+    private TurtlePaper paper;
+    
+    public PaperStrokeBenchmark(boolean batched) {
+        super("TurtleProgram paper, " + (batched ? "batched" : "per segment"));
+        this.batched = batched;
+    }
+    
+    @Override
+    protected void setUp() {
+        paper = new TurtlePaper(800, 800);
+    }
+    
+    @Override
+    protected int getOpsPerRound() {
+        return 100000;
+    }
+    
+    @Override
+    protected double run(int numOps) {
+        double x = 400, y = 400, dir = 0;
+        for(int n = 0; n < numOps; n++) {
+            double x0 = x, y0 = y;
+            x += (n % 20) * Math.cos(dir);
+            y += (n % 20) * Math.sin(dir);
+            dir += 91 * Math.PI / 180;
+            
+            if(batched)
+                paper.batchSegment(Color.BLACK, 1, x0, y0, x, y);
+            else
+                paper.drawSegment(Color.BLACK, 1, x0, y0, x, y);
+        }
+        paper.flush();
+        return x + y;
+    }
+    
+    public static void main(String[] args) {
+        runAll(new PaperStrokeBenchmark(false), new PaperStrokeBenchmark(true));
+    }
+}
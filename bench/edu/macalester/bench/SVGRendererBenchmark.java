@@ -0,0 +1,50 @@
+package edu.macalester.bench;
+
+import java.io.File;
+import java.io.IOException;
+
+import edu.macalester.turtle.SVGTurtleRenderer;
+import edu.macalester.turtle.Turtle;
+
+/**
+ * Measures the per-segment cost of drawing a spiral into an {@link SVGTurtleRenderer}, including
+ * the amortized cost of writing the document out to a temporary file.
+ */
+public class SVGRendererBenchmark extends Microbenchmark {
+    public SVGRendererBenchmark() {
+        super("SVGTurtleRenderer.turtleMoved");
+    }
+    
+    @Override
+    protected int getOpsPerRound() {
+        return 100000;
+    }
+    
+    @Override
+    protected double run(int numOps) {
+        File file;
+        try {
+            file = File.createTempFile("turtle-bench", ".svg");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        
+        SVGTurtleRenderer renderer = new SVGTurtleRenderer(file.getPath(), 800, 800);
+        Turtle turtle = new Turtle(400, 400);
+        turtle.setStepSize(1);
+        renderer.add(turtle);
+        for(int n = 0; n < numOps; n++) {
+            turtle.forward(n % 300);
+            turtle.right(91);
+        }
+        renderer.close();
+        
+        double size = file.length();
+        file.delete();
+        return size;
+    }
+    
+    public static void main(String[] args) {
+        runAll(new SVGRendererBenchmark());
+    }
+}
@@ -0,0 +1,54 @@
+package edu.macalester.bench;
+
+import java.util.Arrays;
+
+import edu.macalester.turtle.PenStyle;
+import edu.macalester.turtle.Turtle;
+import edu.macalester.turtle.TurtlePathObserver;
+
+/**
+ * Measures the cost per command of {@link Turtle#execute(byte[], double[], int, int)} running
+ * alternating moves and turns, with one observer that takes either each step or whole paths.
+ * Compare with {@link TurtleForwardBenchmark}, which makes one method call per step.
+ */
+public class TurtleExecuteBenchmark extends Microbenchmark {
+    private static final int PROGRAM_SIZE = 4096;
+    
+    private final boolean pathObserver;
+    private Turtle turtle;
+    private final byte[] ops = new byte[PROGRAM_SIZE];
+    private final double[] args = new double[PROGRAM_SIZE];
+    
+    public TurtleExecuteBenchmark(boolean pathObserver) {
+        super("Turtle.execute, " + (pathObserver ? "path" : "step") + " observer");
+        this.pathObserver = pathObserver;
+    }
+    
+    @Override
+    protected void setUp() {
+        turtle = new Turtle(0, 0);
+        turtle.addObserver(pathObserver ? new NullPathObserver() : new TurtleForwardBenchmark.NullObserver());
+        for(int n = 0; n < PROGRAM_SIZE; n += 2) {
+            ops[n] = Turtle.FORWARD;
+            ops[n + 1] = Turtle.LEFT;
+        }
+        Arrays.fill(args, 0.001);
+    }
+    
+    @Override
+    protected double run(int numOps) {
+        for(int done = 0; done < numOps; done += PROGRAM_SIZE)
+            turtle.execute(ops, args, 0, Math.min(PROGRAM_SIZE, numOps - done));
+        return turtle.getX();
+    }
+    
+    public static void main(String[] args) {
+        runAll(
+            new TurtleExecuteBenchmark(false),
+            new TurtleExecuteBenchmark(true));
+    }
+    
+    static class NullPathObserver extends TurtleForwardBenchmark.NullObserver implements TurtlePathObserver {
+        public void turtleDrewPath(Turtle turtle, PenStyle pen, double[] points, int pointCount) { }
+    }
+}
@@ -0,0 +1,46 @@
+package edu.macalester.bench;
+
+import edu.macalester.turtle.Turtle;
+import edu.macalester.turtle.TurtleObserver;
+
+/**
+ * Measures the cost of {@link Turtle#forward(double)} with 0, 1 and 4 observers attached.
+ * The observers do nothing, so this isolates the turtle's own work and its observer dispatch.
+ */
+public class TurtleForwardBenchmark extends Microbenchmark {
+    private final int observerCount;
+    private Turtle turtle;
+    
+    public TurtleForwardBenchmark(int observerCount) {
+        super("Turtle.forward, " + observerCount + " observers");
+        this.observerCount = observerCount;
+    }
+    
+    @Override
+    protected void setUp() {
+        turtle = new Turtle(0, 0);
+        turtle.right(17);
+        for(int n = 0; n < observerCount; n++)
+            turtle.addObserver(new NullObserver());
+    }
+    
+    @Override
+    protected double run(int numOps) {
+        for(int n = 0; n < numOps; n++)
+            turtle.forward(0.001);
+        return turtle.getX();
+    }
+    
+    public static void main(String[] args) {
+        runAll(
+            new TurtleForwardBenchmark(0),
+            new TurtleForwardBenchmark(1),
+            new TurtleForwardBenchmark(4));
+    }
+    
+    static class NullObserver implements TurtleObserver {
+        public void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) { }
+        public void turtleTurned(Turtle turtle, double oldDir, double newDir) { }
+        public void turtleChanged(Turtle turtle) { }
+    }
+}
@@ -0,0 +1,34 @@
+package edu.macalester.bench;
+
+import edu.macalester.turtle.Turtle;
+
+/**
+ * Measures the cost of alternating {@link Turtle#right(double)} and {@link Turtle#forward(double)}
+ * with a single do-nothing observer, as in a typical spiral.
+ */
+public class TurtleRightBenchmark extends Microbenchmark {
+    private Turtle turtle;
+    
+    public TurtleRightBenchmark() {
+        super("Turtle.right + forward, 1 observer");
+    }
+    
+    @Override
+    protected void setUp() {
+        turtle = new Turtle(0, 0);
+        turtle.addObserver(new TurtleForwardBenchmark.NullObserver());
+    }
+    
+    @Override
+    protected double run(int numOps) {
+        for(int n = 0; n < numOps; n++) {
+            turtle.right(0.7);
+            turtle.forward(0.001);
+        }
+        return turtle.getX();
+    }
+    
+    public static void main(String[] args) {
+        runAll(new TurtleRightBenchmark());
+    }
+}
@@ -11,6 +11,8 @@ import edu.macalester.turtle.TurtleProgram;
 
 
 public class Spiral extends TurtleProgram {
+    private static final int CHUNK_STEPS = 256;
+    
     public void run() {
         setTurtleSpeedFactor(0);
         
@@ -43,15 +45,60 @@ public class Spiral extends TurtleProgram {
         turtle.setColor(spiralColor);
         turtle.setStepSize(1);
         
+        // Commands are generated in chunks and run with a single call each
+        byte[] ops = new byte[CHUNK_STEPS * 2];
+        double[] args = new double[CHUNK_STEPS * 2];
+        double[] values = new double[CHUNK_STEPS * (skipSize + 1)];
+        for(int n = 0; n < CHUNK_STEPS; n++) {
+            ops[n * 2]     = Turtle.FORWARD;
+            ops[n * 2 + 1] = Turtle.LEFT;
+        }
+        
         while(turtleIsNearScreen(turtle)) {
-            stepGen.skip(skipSize);
-            angleGen.skip(skipSize);
-            turtle.forward(stepGen.next());
-            turtle.left(angleGen.next());
+            fill(stepGen, skipSize, values, args, 0);
+            fill(angleGen, skipSize, values, args, 1);
+            
+            double travel = 0;
+            for(int n = 0; n < CHUNK_STEPS; n++)
+                travel += Math.abs(args[n * 2]);
+            if(travel * turtle.getStepSize() < distanceToEdge(turtle))
+                turtle.execute(ops, args, 0, ops.length);
+            else {
+                // The turtle might leave during this chunk, so check after every step as before
+                for(int n = 0; n < CHUNK_STEPS && turtleIsNearScreen(turtle); n++)
+                    turtle.execute(ops, args, n * 2, 2);
+            }
         }
         remove(turtle);
     }
     
+    /**
+     * Puts the generator's next value for each step of a chunk into every other element of args,
+     * starting at the given offset, skipping skipSize values before each.
+     */
+    private void fill(Generator gen, int skipSize, double[] values, double[] args, int argOffset) {
+        if(skipSize > 0 && gen.isSkipCheap()) {
+            for(int n = 0; n < CHUNK_STEPS; n++) {
+                gen.skip(skipSize);
+                args[n * 2 + argOffset] = gen.next();
+            }
+        } else {
+            gen.next(values, 0, values.length);  // keep every (skipSize + 1)th value
+            for(int n = 0; n < CHUNK_STEPS; n++)
+                args[n * 2 + argOffset] = values[n * (skipSize + 1) + skipSize];
+        }
+    }
+    
+    /**
+     * How far the turtle can move in any direction and still be near the screen.
+     */
+    private double distanceToEdge(Turtle turtle) {
+        double margin = Math.max(getWidth(), getHeight()) / 2;
+        return Math.min(
+            Math.min(turtle.getX() + margin, getWidth()  + margin - turtle.getX()),
+            Math.min(turtle.getY() + margin, getHeight() + margin - turtle.getY()));
+    }
+    
     private boolean turtleIsNearScreen(Turtle turtle) {
         double margin = Math.max(getWidth(), getHeight()) / 2;
         return turtle.getX() > -margin
@@ -0,0 +1,53 @@
+package edu.macalester.cs124;
+
+import java.awt.Color;
+
+import edu.macalester.generator.ConstantGenerator;
+import edu.macalester.generator.Generator;
+import edu.macalester.generator.SineGenerator;
+import edu.macalester.turtle.Turtle;
+import edu.macalester.turtle.TurtleProgram;
+
+/**
+ * Measures how many segments per second the turtle paper can draw, first stroking each
+ * segment individually and then with batched drawing turned on. Run it and compare the
+ * two numbers it prints.
+ */
+public class SpiralThroughput extends TurtleProgram {
+    private static final int SEGMENTS = 1000000;
+    
+    public void run() {
+        setTurtleSpeedFactor(0);
+        setTurtlesVisible(false);
+        
+        setBatchedDrawing(false);
+        measure("unbatched");
+        
+        clear();
+        setBatchedDrawing(true);
+        measure("batched");
+    }
+
+    private void measure(String label) {
+        Generator stepGen = new ConstantGenerator(5);
+        Generator angleGen = new SineGenerator(
+            new SineGenerator(0, 0.0004, 5),
+            new ConstantGenerator(180));
+        
+        Turtle turtle = new Turtle(getWidth() / 2, getHeight() / 2, Color.BLACK);
+        turtle.setStepSize(1);
+        add(turtle);
+        
+        long startCount = getSegmentCount();
+        long startTime = System.nanoTime();
+        for(int n = 0; n < SEGMENTS; n++) {
+            turtle.forward(stepGen.next());
+            turtle.left(angleGen.next());
+        }
+        long segments = getSegmentCount() - startCount;
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        
+        remove(turtle);
+        println(label + ": " + Math.round(segments / seconds) + " segments/second");
+    }
+}
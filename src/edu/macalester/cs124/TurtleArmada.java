@@ -20,6 +20,7 @@ public class TurtleArmada extends TurtleProgram {
         }
         
         setTurtleSpeedFactor(0);
+        setParallelDrawing(true);
         double angle = 0;
         while(true) {
             for(Turtle turtle : turtles) {
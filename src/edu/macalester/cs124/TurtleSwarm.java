@@ -0,0 +1,43 @@
+package edu.macalester.cs124;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import edu.macalester.turtle.Turtle;
+import edu.macalester.turtle.TurtleProgram;
+
+/**
+ * Many turtles wandering at once, each driven by its own task.
+ */
+public class TurtleSwarm extends TurtleProgram {
+    private static final int TURTLE_COUNT = 500;
+    
+    public void run() {
+        List<Turtle> turtles = new ArrayList<Turtle>();
+        for(int n = 0; n < TURTLE_COUNT; n++) {
+            Turtle turtle = new Turtle(
+                getWidth() / 2,
+                getHeight() / 2,
+                new Color(((n * 236374563) & 0xFFFFFF) | 0x55000000, true));
+            turtles.add(turtle);
+            add(turtle);
+        }
+        setTurtleSize(0.25);
+        
+        for(int n = 0; n < TURTLE_COUNT; n++) {
+            final Turtle turtle = turtles.get(n);
+            final Random rand = new Random(n);
+            startTurtleTask(new Runnable() {
+                public void run() {
+                    for(int step = 0; step < 200; step++) {
+                        turtle.right(rand.nextGaussian() * 45);
+                        turtle.forward(rand.nextDouble() * 20);
+                    }
+                }
+            });
+        }
+        awaitTurtleTasks();
+    }
+}
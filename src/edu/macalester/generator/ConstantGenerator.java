@@ -1,5 +1,7 @@
 package edu.macalester.generator;
 
+import java.util.Arrays;
+
 public class ConstantGenerator extends Generator {
     private double constant;
     
@@ -11,7 +13,15 @@ public class ConstantGenerator extends Generator {
         return constant;
     }
     
+    public void next(double[] dst, int off, int len) {
+        Arrays.fill(dst, off, off + len, constant);
+    }
+    
     public void skip(int numSteps) {
         // do nothing!
     }
+    
+    public boolean isSkipCheap() {
+        return true;
+    }
 }
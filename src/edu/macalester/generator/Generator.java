@@ -3,8 +3,27 @@ package edu.macalester.generator;
 public abstract class Generator {
     public abstract double next();
 
+    /**
+     * Fills dst[off] through dst[off + len - 1] with the next len values, exactly as if
+     * {@link #next()} had been called len times. Subclasses override this with loops the JIT
+     * can optimize better than one call per value.
+     */
+    public void next(double[] dst, int off, int len) {
+        for(int i = off; i < off + len; i++)
+            dst[i] = next();
+    }
+
     public void skip(int numToSkip) {
         for(int n = 0; n < numToSkip; n++)
             next();
     }
+
+    /**
+     * Returns true if {@link #skip(int)} is much cheaper than calling {@link #next()} the same
+     * number of times, i.e. it takes constant time or delegates to children that skip cheaply.
+     * Callers can use this to decide whether skipping far ahead is affordable.
+     */
+    public boolean isSkipCheap() {
+        return false;
+    }
 }
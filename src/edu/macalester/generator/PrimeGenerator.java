@@ -1,27 +1,142 @@
 package edu.macalester.generator;
 
+import java.util.Arrays;
 
+/**
+ * Generates the prime numbers in order, starting from the first prime at or after a given start.
+ * <p>
+ * Primes are found with a segmented sieve of Eratosthenes: the generator sieves one fixed-size
+ * block of numbers at a time, storing one bit per number, and moves on to the next block when
+ * this one is used up. Memory use therefore stays small no matter how large the numbers get, and
+ * {@link #skip(int)} can jump ahead by counting bits instead of visiting each prime.
+ */
 public class PrimeGenerator extends Generator {
-    private int cur;
+    private static final int BLOCK_SIZE = 1 << 16;  // numbers per sieve block; a multiple of 64
+    
+    private final long[] block = new long[BLOCK_SIZE / 64];  // bit n set if blockStart + n is prime
+    private long blockStart;
+    private int pos;  // index in block of the next number to consider
+    
+    private int[] basePrimes = new int[0];  // all primes <= basePrimeLimit, for sieving blocks
+    private int basePrimeLimit = 1;
     
     public PrimeGenerator(int start) {
-        cur = start - 1;  // make start the next number tested
+        long first = Math.max(start, 2);
+        sieveBlock(first - first % BLOCK_SIZE);
+        pos = (int) (first - blockStart);  // make start the next number tested
     }
     
     public double next() {
         while(true) {
-            cur++;
-            if(isPrime(cur))
-                return cur;
+            int index = nextPrimeIndex(pos);
+            if(index >= 0) {
+                pos = index + 1;
+                return blockStart + index;
+            }
+            nextBlock();
         }
     }
-
-    private boolean isPrime(int n) {
-        if(n <= 1)
-            return false;
-        for(int i = 2; i <= n/2; i++)
-            if(n % i == 0)
-                return false;
+    
+    public void next(double[] dst, int off, int len) {
+        for(int i = off; i < off + len; i++) {
+            int index;
+            while((index = nextPrimeIndex(pos)) < 0)
+                nextBlock();
+            pos = index + 1;
+            dst[i] = blockStart + index;
+        }
+    }
+    
+    public void skip(int numToSkip) {
+        if(numToSkip <= 0)
+            return;
+        if(pos >= BLOCK_SIZE)
+            nextBlock();
+        
+        // Count primes a word at a time until the word containing the last one to skip
+        int w = pos >>> 6;
+        long word = block[w] & (-1L << pos);
+        int count;
+        while((count = Long.bitCount(word)) < numToSkip) {
+            numToSkip -= count;
+            if(++w == block.length) {
+                nextBlock();
+                w = 0;
+            }
+            word = block[w];
+        }
+        for(; numToSkip > 1; numToSkip--)
+            word &= word - 1;  // clear lowest set bit
+        pos = w * 64 + Long.numberOfTrailingZeros(word) + 1;
+    }
+    
+    public boolean isSkipCheap() {
         return true;
     }
+    
+    // ------ Searching the current block ------
+    
+    /**
+     * Returns the index of the first prime in the block at or after the given index, or -1 if none.
+     */
+    private int nextPrimeIndex(int from) {
+        if(from >= BLOCK_SIZE)
+            return -1;
+        int w = from >>> 6;
+        long word = block[w] & (-1L << from);
+        while(word == 0) {
+            if(++w == block.length)
+                return -1;
+            word = block[w];
+        }
+        return w * 64 + Long.numberOfTrailingZeros(word);
+    }
+    
+    // ------ Sieving ------
+    
+    private void nextBlock() {
+        sieveBlock(blockStart + BLOCK_SIZE);
+        pos = 0;
+    }
+    
+    private void sieveBlock(long start) {
+        blockStart = start;
+        long end = start + BLOCK_SIZE;
+        
+        Arrays.fill(block, -1L);
+        if(start == 0)
+            block[0] &= ~3L;  // 0 and 1 are not prime
+        
+        ensureBasePrimes((int) Math.sqrt((double) end));
+        for(int p : basePrimes) {
+            if((long) p * p >= end)
+                break;
+            long firstMultiple = Math.max((long) p * p, (start + p - 1) / p * p);
+            for(int i = (int) (firstMultiple - start); i < BLOCK_SIZE; i += p)
+                block[i >>> 6] &= ~(1L << i);
+        }
+    }
+    
+    /**
+     * Makes sure basePrimes contains every prime up to at least the given limit.
+     */
+    private void ensureBasePrimes(int limit) {
+        if(limit <= basePrimeLimit)
+            return;
+        basePrimeLimit = Math.max(limit, basePrimeLimit * 2);
+        
+        boolean[] composite = new boolean[basePrimeLimit + 1];
+        int count = 0;
+        int[] primes = new int[16];
+        for(int n = 2; n <= basePrimeLimit; n++) {
+            if(composite[n])
+                continue;
+            if(count == primes.length)
+                primes = Arrays.copyOf(primes, count * 2);
+            primes[count++] = n;
+            for(long m = (long) n * n; m <= basePrimeLimit; m += n)
+                composite[(int) m] = true;
+        }
+        basePrimes = Arrays.copyOf(primes, count);
+    }
 }
@@ -3,6 +3,7 @@ package edu.macalester.generator;
 public class SineGenerator extends Generator {
     private Generator stepGen;
     private Generator ampGen;
+    private double[] ampBuffer = new double[0];
     
     public SineGenerator(double x, double step, double amp) {
         stepGen = new SteppingGenerator(x, step);
@@ -17,4 +18,22 @@ public class SineGenerator extends Generator {
     public double next() {
         return Math.sin(stepGen.next()) * ampGen.next();
     }
+    
+    public void next(double[] dst, int off, int len) {
+        if(ampBuffer.length < len)
+            ampBuffer = new double[len];
+        stepGen.next(dst, off, len);
+        ampGen.next(ampBuffer, 0, len);
+        for(int i = 0; i < len; i++)
+            dst[off + i] = Math.sin(dst[off + i]) * ampBuffer[i];
+    }
+    
+    public void skip(int numToSkip) {
+        stepGen.skip(numToSkip);
+        ampGen.skip(numToSkip);
+    }
+    
+    public boolean isSkipCheap() {
+        return stepGen.isSkipCheap() && ampGen.isSkipCheap();
+    }
 }
@@ -2,16 +2,35 @@ package edu.macalester.generator;
 
 
 public class SteppingGenerator extends Generator {
-    private double cur;
+    private double start;
     private double step;
+    private long count;  // values returned or skipped so far
     
     public SteppingGenerator(double start, double step) {
-        this.cur = start - step;
+        this.start = start;
         this.step = step;
     }
     
+    // Each value is computed from its index rather than by adding step to the previous one,
+    // so next(), skip() and the bulk next() all give exactly the same values.
+    
     public double next() {
-        cur += step;
-        return cur;
+        return start + step * count++;
+    }
+    
+    public void next(double[] dst, int off, int len) {
+        long base = count;
+        for(int i = 0; i < len; i++)
+            dst[off + i] = start + step * (base + i);
+        count += len;
+    }
+    
+    public void skip(int numToSkip) {
+        if(numToSkip > 0)
+            count += numToSkip;
+    }
+    
+    public boolean isSkipCheap() {
+        return true;
     }
 }
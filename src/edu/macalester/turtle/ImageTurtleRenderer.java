@@ -0,0 +1,104 @@
+package edu.macalester.turtle;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders turtle graphics straight to an image, with no window, animation or turtle sprites.
+ * This works in a headless JVM (one running with {@code java.awt.headless=true}), which makes
+ * it suitable for drawing many images in batch on a server.
+ * <p>
+ * Add turtles with {@link #add(Turtle)}, drive them as usual, then save the result with
+ * {@link #writePNG(String)}.
+ * 
+ * @see TurtlePaper
+ */
+public class ImageTurtleRenderer implements TurtlePathObserver {
+    private final TurtlePaper paper;
+    private boolean batchedDrawing;
+
+    public ImageTurtleRenderer(int width, int height) {
+        paper = new TurtlePaper(width, height);
+    }
+    
+    /**
+     * Enables or disables batched drawing. When enabled, consecutive segments that share a pen
+     * color and width are stroked as a single polyline, which is much faster for drawings with
+     * many short segments. See {@link TurtleProgram#setBatchedDrawing(boolean)}. The default is false.
+     */
+    public synchronized void setBatchedDrawing(boolean batchedDrawing) {
+        if(!batchedDrawing)
+            paper.flush();
+        this.batchedDrawing = batchedDrawing;
+    }
+    
+    /**
+     * Returns the drawing so far.
+     */
+    public synchronized BufferedImage getImage() {
+        paper.flush();
+        return paper.getImage();
+    }
+    
+    /**
+     * Clears the image to white.
+     */
+    public synchronized void clear() {
+        paper.clear();
+    }
+    
+    /**
+     * Writes the drawing so far to the given file in PNG format.
+     */
+    public synchronized void writePNG(String filename) {
+        paper.flush();
+        try {
+            ImageIO.write(paper.getImage(), "png", new File(filename));
+        } catch (IOException e) {
+            // Throw as runtime exception so students don't have to deal with catching it
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) {
+        if(!turtle.isPenDown())
+            return;
+        
+        if(batchedDrawing)
+            paper.batchSegment(turtle.getColor(), turtle.getPenWidth(), x0, y0, x1, y1);
+        else
+            paper.drawSegment(turtle.getColor(), turtle.getPenWidth(), x0, y0, x1, y1);
+    }
+
+    @Override
+    public synchronized void turtleDrewPath(Turtle turtle, PenStyle pen, double[] points, int pointCount) {
+        Color color = pen.getColor();
+        double penWidth = pen.getWidth();
+        for(int n = 1; n < pointCount; n++) {
+            double x0 = points[n * 2 - 2], y0 = points[n * 2 - 1], x1 = points[n * 2], y1 = points[n * 2 + 1];
+            if(batchedDrawing)
+                paper.batchSegment(color, penWidth, x0, y0, x1, y1);
+            else
+                paper.drawSegment(color, penWidth, x0, y0, x1, y1);
+        }
+    }
+
+    @Override
+    public void turtleTurned(Turtle turtle, double oldDir, double newDir) {
+         // ignore
+    }
+
+    @Override
+    public void turtleChanged(Turtle turtle) {
+         // ignore
+    }
+
+    public void add(Turtle turtle) {
+         turtle.addObserver(this);
+    }
+}
@@ -1,21 +1,59 @@
 package edu.macalester.turtle;
 
+import java.awt.Color;
+import java.io.Closeable;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
 
 import com.itextpdf.awt.geom.AffineTransform;
 import com.itextpdf.text.BaseColor;
 import com.itextpdf.text.Document;
 import com.itextpdf.text.Rectangle;
 import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfTemplate;
 import com.itextpdf.text.pdf.PdfWriter;
 
-public class PDFTurtleRenderer implements TurtleObserver {
+/**
+ * Renders turtle graphics to a single-page PDF file.
+ * <p>
+ * Consecutive segments that join end to start and share a pen color and width are written as
+ * a single path, and pen color and width are only written when they change. Paths drawn with
+ * {@link Turtle#execute(byte[], double[], int, int) Turtle.execute()} are written a whole path at a time. Drawing is written
+ * out to the file in chunks as it goes, so memory use stays flat for drawings of any size.
+ * <p>
+ * Call {@link #close()} when the drawing is done. This finishes the file and detaches the
+ * renderer from all its turtles. A renderer that is garbage collected without being closed is
+ * logged as a leak, and its file is closed with whatever had been written out by then.
+ */
+public class PDFTurtleRenderer implements TurtlePathObserver, Closeable {
+    /**
+     * The number of segments drawn before the current chunk of drawing is written to the file.
+     */
+    private static final int SEGMENTS_PER_CHUNK = 10000;
+
     private final Document document;
+    private final PdfWriter writer;
     private final PdfContentByte canvas;
+    private final List<Turtle> turtles = new ArrayList<Turtle>();
+    private final LeakTracker leakTracker;
+
+    private PdfTemplate chunk;        // drawing not yet written to the file, or null if none
+    private int chunkSegments;
+    private Color strokeColor;        // pen state already written to chunk, or null / -1 if none
+    private double strokeWidth = -1;
+    private boolean pathOpen;
+    private double pathEndX, pathEndY;
 
     public PDFTurtleRenderer(String filename, double pageWidth, double pageHeight) {
         document = new Document(new Rectangle((float) pageWidth, (float) pageHeight));
-        PdfWriter writer;
         try {
             writer = PdfWriter.getInstance(document, new FileOutputStream(filename));
         } catch (Exception e) {
@@ -24,34 +62,59 @@ public class PDFTurtleRenderer implements TurtleObserver {
         }
         document.open();
         canvas = writer.getDirectContentUnder();
-        canvas.setLineCap(PdfContentByte.LINE_CAP_ROUND);
-        canvas.setLineJoin(PdfContentByte.LINE_JOIN_ROUND);
         // PDF uses math-style y-axis (positive is up), so flip it vertically
         canvas.transform(new AffineTransform(1, 0, 0, -1, 0, document.top() + document.bottom()));
         writer.setCompressionLevel(0);
+        leakTracker = new LeakTracker(this, filename, document);
+    }
+
+    /**
+     * Sets the compression level for drawing written from now on, from 0 (no compression,
+     * the default) to 9 (best compression).
+     */
+    public void setCompressionLevel(int level) {
+        writer.setCompressionLevel(level);
     }
-    
-    public void close() {
-        if(document.isOpen())
-            document.close();
+
+    /**
+     * Detaches this renderer from its turtles and finishes writing the file. Does nothing if
+     * the renderer is already closed.
+     */
+    public synchronized void close() {
+        if(!document.isOpen())
+            return;
+
+        for(Turtle turtle : turtles)
+            turtle.removeObserver(this);
+        turtles.clear();
+
+        flushChunk();
+        leakTracker.untrack();
+        document.close();
     }
-    
+
     @Override
-    protected void finalize() throws Throwable {
-        close();
-        super.finalize();
+    public synchronized void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) {
+        if(!turtle.isPenDown() || !document.isOpen())
+            return;
+
+        continuePath(turtle.getColor(), turtle.getPenWidth(), x0, y0);
+        lineTo(x1, y1);
     }
 
     @Override
-    public void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) {
-        if(!turtle.isPenDown())
+    public synchronized void turtleDrewPath(Turtle turtle, PenStyle pen, double[] points, int pointCount) {
+        if(!document.isOpen())
             return;
-        
-        canvas.setColorStroke(new BaseColor(turtle.getColor().getRGB()));
-        canvas.setLineWidth((float) turtle.getPenWidth());
-        canvas.moveTo((float) x0, (float) y0);
-        canvas.lineTo((float) x1, (float) y1);
-        canvas.closePathStroke();
+
+        Color color = pen.getColor();
+        double penWidth = pen.getWidth();
+        continuePath(color, penWidth, points[0], points[1]);
+        for(int n = 1; n < pointCount; n++) {
+            if(!pathOpen)  // the previous chunk was just written out
+                continuePath(color, penWidth, points[n * 2 - 2], points[n * 2 - 1]);
+            lineTo(points[n * 2], points[n * 2 + 1]);
+        }
     }
 
     @Override
@@ -64,7 +127,149 @@ public class PDFTurtleRenderer implements TurtleObserver {
          // ignore
     }
 
-    public void add(Turtle turtle) {
-         turtle.addObserver(this);
+    /**
+     * Starts drawing the given turtle's motions.
+     * 
+     * @throws IllegalStateException if this renderer is closed
+     */
+    public synchronized void add(Turtle turtle) {
+        if(!document.isOpen())
+            throw new IllegalStateException("Cannot add turtle: renderer is already closed");
+        turtles.add(turtle);
+        turtle.addObserver(this);
+    }
+
+    // ------ Chunked output ------
+
+    /**
+     * Makes sure the open path has the given pen and ends at the given point, starting a new one if not.
+     */
+    private void continuePath(Color color, double penWidth, double x0, double y0) {
+        if(pathOpen && (!color.equals(strokeColor) || penWidth != strokeWidth || x0 != pathEndX || y0 != pathEndY))
+            endPath();
+        if(pathOpen)
+            return;
+
+        if(chunk == null)
+            startChunk();
+        if(!color.equals(strokeColor)) {
+            chunk.setColorStroke(new BaseColor(color.getRGB()));
+            strokeColor = color;
+        }
+        if(penWidth != strokeWidth) {
+            chunk.setLineWidth((float) penWidth);
+            strokeWidth = penWidth;
+        }
+        chunk.moveTo((float) x0, (float) y0);
+        pathOpen = true;
+        pathEndX = x0;
+        pathEndY = y0;
+    }
+
+    /**
+     * Extends the open path to the given point, and writes out the chunk if it is full.
+     */
+    private void lineTo(double x1, double y1) {
+        chunk.lineTo((float) x1, (float) y1);
+        pathEndX = x1;
+        pathEndY = y1;
+
+        if(++chunkSegments >= SEGMENTS_PER_CHUNK)
+            flushChunk();
+    }
+
+    private void startChunk() {
+        chunk = canvas.createTemplate(document.getPageSize().getWidth(), document.getPageSize().getHeight());
+        chunk.setLineCap(PdfContentByte.LINE_CAP_ROUND);
+        chunk.setLineJoin(PdfContentByte.LINE_JOIN_ROUND);
+        strokeColor = null;
+        strokeWidth = -1;
+        chunkSegments = 0;
+    }
+
+    private void endPath() {
+        if(pathOpen) {
+            chunk.stroke();
+            pathOpen = false;
+        }
+    }
+
+    /**
+     * Places the current chunk on the page and writes it to the file, so that its memory can be released.
+     */
+    private void flushChunk() {
+        if(chunk == null)
+            return;
+
+        endPath();
+        canvas.addTemplate(chunk, 0, 0);
+        try {
+            writer.releaseTemplate(chunk);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        chunk = null;
+    }
+
+    // ------ Leak detection ------
+
+    /**
+     * Closes the document of a renderer that was garbage collected without being closed.
+     * Holds only the document, not the renderer, so it does not keep the renderer alive.
+     */
+    private static class LeakTracker extends PhantomReference<PDFTurtleRenderer> {
+        private static final Logger logger = Logger.getLogger(PDFTurtleRenderer.class.getName());
+        private static final ReferenceQueue<PDFTurtleRenderer> queue = new ReferenceQueue<PDFTurtleRenderer>();
+        private static final Set<LeakTracker> tracked = Collections.synchronizedSet(new HashSet<LeakTracker>());
+        private static Thread reaper;
+
+        private final String filename;
+        private final Document document;
+
+        LeakTracker(PDFTurtleRenderer renderer, String filename, Document document) {
+            super(renderer, queue);
+            this.filename = filename;
+            this.document = document;
+            tracked.add(this);  // keeps this reference reachable until the renderer is collected
+            startReaper();
+        }
+
+        void untrack() {
+            tracked.remove(this);
+            clear();
+        }
+
+        private static synchronized void startReaper() {
+            if(reaper != null)
+                return;
+            reaper = new Thread("PDFTurtleRenderer leak detector") {
+                public void run() {
+                    while(true) {
+                        LeakTracker leak;
+                        try {
+                            leak = (LeakTracker) queue.remove();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        leak.closeLeaked();
+                    }
+                }
+            };
+            reaper.setDaemon(true);
+            reaper.start();
+        }
+
+        private void closeLeaked() {
+            tracked.remove(this);
+            if(!document.isOpen())
+                return;
+            logger.warning("PDFTurtleRenderer for " + filename + " was never closed; closing it now."
+                + " Drawing since the last chunk was written is lost.");
+            try {
+                document.close();
+            } catch (RuntimeException e) {
+                logger.warning("Unable to close " + filename + ": " + e);
+            }
+        }
     }
 }
@@ -0,0 +1,168 @@
+package edu.macalester.turtle;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Draws many batches of segments onto a paper using several threads. The batches are split
+ * into contiguous groups, one per thread; each thread strokes its group into its own transparent
+ * layer, and the layers are then composited onto the paper in order.
+ * <p>
+ * The result is the same as drawing the batches onto the paper one after another, except for
+ * rounding differences where translucent strokes from different groups overlap.
+ */
+class ParallelRasterizer {
+    /**
+     * Below this many segments, batches are drawn on the calling thread, since handing them
+     * to the workers would cost more than it saves.
+     */
+    private static final int MIN_PARALLEL_SEGMENTS = 2000;
+    
+    private final TurtlePaper[] layers;
+    private final ExecutorService executor;
+    private final int width, height;
+    
+    public ParallelRasterizer(int width, int height, int threadCount) {
+        this.width = width;
+        this.height = height;
+        layers = new TurtlePaper[threadCount];
+        createLayers();
+        
+        executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Turtle rasterizer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    /**
+     * Draws the given batches onto the paper as if one after another, then clears them. The
+     * batches are cleared even if drawing is interrupted or fails, so that nothing is drawn twice.
+     */
+    public void draw(List<SegmentBatch> batches, TurtlePaper paper) {
+        try {
+            int total = 0;
+            for(SegmentBatch batch : batches)
+                total += batch.size();
+            
+            if(total < MIN_PARALLEL_SEGMENTS || layers.length == 1)
+                for(SegmentBatch batch : batches)
+                    batch.drawTo(paper.getGraphics());
+            else
+                drawInParallel(batches, total, paper);
+        } finally {
+            for(SegmentBatch batch : batches)
+                batch.clear();
+        }
+    }
+    
+    private void drawInParallel(List<SegmentBatch> batches, int total, TurtlePaper paper) {
+        boolean completed = false;
+        try {
+            completed = drawLayers(batches, total, paper);
+        } finally {
+            if(!completed)
+                createLayers();  // workers may still be drawing into the old layers, so abandon them
+        }
+    }
+    
+    /**
+     * Draws the batches into the layers and composites them onto the paper. Returns false if
+     * interrupted before done.
+     */
+    private boolean drawLayers(List<SegmentBatch> batches, int total, TurtlePaper paper) {
+        List<Callable<Rectangle>> tasks = new ArrayList<Callable<Rectangle>>();
+        int groupTarget = (total + layers.length - 1) / layers.length;
+        int start = 0;
+        while(start < batches.size()) {
+            int end = start, groupSize = 0;
+            boolean lastGroup = tasks.size() == layers.length - 1;
+            while(end < batches.size() && (lastGroup || groupSize < groupTarget))
+                groupSize += batches.get(end++).size();
+            tasks.add(new LayerTask(layers[tasks.size()], batches.subList(start, end)));
+            start = end;
+        }
+        
+        List<Future<Rectangle>> results;
+        try {
+            results = executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        
+        Rectangle paperBounds = new Rectangle(0, 0, paper.getImage().getWidth(), paper.getImage().getHeight());
+        for(int n = 0; n < results.size(); n++) {
+            Rectangle bounds;
+            try {
+                bounds = results.get(n).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+            if(bounds == null)
+                continue;
+            bounds = bounds.intersection(paperBounds);
+            if(bounds.isEmpty())
+                continue;
+            
+            TurtlePaper layer = layers[n];
+            paper.getGraphics().drawImage(layer.getImage(),
+                bounds.x, bounds.y, bounds.x + bounds.width, bounds.y + bounds.height,
+                bounds.x, bounds.y, bounds.x + bounds.width, bounds.y + bounds.height,
+                null);
+            layer.clear(bounds.x, bounds.y, bounds.width, bounds.height);
+        }
+        return true;
+    }
+    
+    private void createLayers() {
+        for(int n = 0; n < layers.length; n++)
+            layers[n] = new TurtlePaper(width, height, true);
+    }
+    
+    /**
+     * Stops the worker threads. The rasterizer cannot be used afterward.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+    
+    private static class LayerTask implements Callable<Rectangle> {
+        private final TurtlePaper layer;
+        private final List<SegmentBatch> batches;
+        
+        LayerTask(TurtlePaper layer, List<SegmentBatch> batches) {
+            this.layer = layer;
+            this.batches = batches;
+        }
+        
+        public Rectangle call() {
+            Graphics2D g = layer.getGraphics();
+            Rectangle bounds = null;
+            for(SegmentBatch batch : batches) {
+                Rectangle batchBounds = batch.getBounds();
+                if(batchBounds == null)
+                    continue;
+                batch.drawTo(g);
+                if(bounds == null)
+                    bounds = batchBounds;
+                else
+                    bounds.add(batchBounds);
+            }
+            return bounds;
+        }
+    }
+}
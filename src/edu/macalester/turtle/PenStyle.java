@@ -0,0 +1,46 @@
+package edu.macalester.turtle;
+
+import java.awt.Color;
+
+/**
+ * An unchanging snapshot of a turtle's pen color and width. A turtle hands out the same
+ * snapshot until its pen changes, so observers can tell whether the pen has changed by
+ * comparing snapshots with ==.
+ * 
+ * @see Turtle#getPenStyle()
+ */
+public final class PenStyle {
+    private final Color color;
+    private final double width;
+    
+    public PenStyle(Color color, double width) {
+        this.color = color;
+        this.width = width;
+    }
+    
+    public Color getColor() {
+        return color;
+    }
+    
+    public double getWidth() {
+        return width;
+    }
+    
+    @Override
+    public boolean equals(Object other) {
+        if(!(other instanceof PenStyle))
+            return false;
+        PenStyle that = (PenStyle) other;
+        return color.equals(that.color) && width == that.width;
+    }
+    
+    @Override
+    public int hashCode() {
+        return color.hashCode() * 31 + Double.valueOf(width).hashCode();
+    }
+    
+    @Override
+    public String toString() {
+        return "PenStyle[" + color + ", width " + width + "]";
+    }
+}
@@ -0,0 +1,296 @@
+package edu.macalester.turtle;
+
+import java.awt.Color;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders turtle graphics to an SVG file, writing the drawing out as it goes. Memory use is the
+ * same for drawings of any size, and no library is needed to read or write the file.
+ * <p>
+ * Consecutive segments that share a pen color and width are written as a single
+ * <code>&lt;path&gt;</code> element, with each point given relative to the one before it and
+ * rounded to a hundredth of a pixel. This makes the file much smaller than the same drawing as a
+ * PDF from {@link PDFTurtleRenderer}. Paths drawn with
+ * {@link Turtle#execute(byte[], double[], int, int) Turtle.execute()} are written a whole path at a time.
+ * <p>
+ * Call {@link #close()} when the drawing is done. This finishes the file and detaches the
+ * renderer from all its turtles; a file that is never closed is left incomplete.
+ */
+public class SVGTurtleRenderer implements TurtlePathObserver, Closeable {
+    /**
+     * Coordinates are written as whole multiples of 1 / PRECISION.
+     */
+    private static final int PRECISION = 100;
+
+    /**
+     * The most segments written to one path element, so that viewers never face an enormous one.
+     */
+    private static final int MAX_PATH_SEGMENTS = 10000;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_NUMBER_LENGTH = 24;
+    private static final byte[] HEX_DIGITS = ascii("0123456789abcdef");
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final List<Turtle> turtles = new ArrayList<Turtle>();
+    private boolean closed;
+
+    private boolean pathOpen;
+    private Color strokeColor;
+    private double strokeWidth;
+    private long pathEndX, pathEndY;  // in units of 1 / PRECISION
+    private int pathSegments;
+    private byte command;             // the last path command written, which later points may repeat
+    private boolean separatorNeeded;  // the last thing written was a number
+    private boolean pointWritten;     // the last number written had a decimal point
+
+    public SVGTurtleRenderer(String filename, double pageWidth, double pageHeight) {
+        try {
+            channel = new FileOutputStream(filename).getChannel();
+        } catch (IOException e) {
+            // Throw as runtime exception so students don't have to deal with catching it
+            throw new RuntimeException(e);
+        }
+        write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"");
+        writeNumber(quantize(pageWidth));
+        write("\" height=\"");
+        writeNumber(quantize(pageHeight));
+        write("\" viewBox=\"0 0 ");
+        writeNumber(quantize(pageWidth));
+        write(" ");
+        writeNumber(quantize(pageHeight));
+        write("\">\n<g fill=\"none\" stroke-linecap=\"round\" stroke-linejoin=\"round\">\n");
+    }
+
+    /**
+     * Detaches this renderer from its turtles and finishes writing the file. Does nothing if
+     * the renderer is already closed.
+     */
+    public synchronized void close() {
+        if(closed)
+            return;
+
+        for(Turtle turtle : turtles)
+            turtle.removeObserver(this);
+        turtles.clear();
+
+        endPath();
+        write("</g>\n</svg>\n");
+        closed = true;
+        try {
+            flushBuffer();
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) {
+        if(!turtle.isPenDown() || closed)
+            return;
+
+        continuePath(turtle.getColor(), turtle.getPenWidth(), x0, y0);
+        lineTo(x1, y1);
+    }
+
+    @Override
+    public synchronized void turtleDrewPath(Turtle turtle, PenStyle pen, double[] points, int pointCount) {
+        if(closed)
+            return;
+
+        Color color = pen.getColor();
+        double penWidth = pen.getWidth();
+        for(int n = 1; n < pointCount; n++) {
+            if(n == 1 || pathSegments >= MAX_PATH_SEGMENTS)
+                continuePath(color, penWidth, points[n * 2 - 2], points[n * 2 - 1]);
+            lineTo(points[n * 2], points[n * 2 + 1]);
+        }
+    }
+
+    @Override
+    public void turtleTurned(Turtle turtle, double oldDir, double newDir) {
+         // ignore
+    }
+
+    @Override
+    public void turtleChanged(Turtle turtle) {
+         // ignore
+    }
+
+    /**
+     * Starts drawing the given turtle's motions.
+     *
+     * @throws IllegalStateException if this renderer is closed
+     */
+    public synchronized void add(Turtle turtle) {
+        if(closed)
+            throw new IllegalStateException("Cannot add turtle: renderer is already closed");
+        turtles.add(turtle);
+        turtle.addObserver(this);
+    }
+
+    // ------ Paths ------
+
+    /**
+     * Makes sure the open path has the given pen and ends at the given point, starting a new
+     * path element if the pen differs, or moving within the current one if only the point does.
+     */
+    private void continuePath(Color color, double penWidth, double x0, double y0) {
+        if(pathOpen && (!color.equals(strokeColor) || penWidth != strokeWidth || pathSegments >= MAX_PATH_SEGMENTS))
+            endPath();
+
+        long x = quantize(x0), y = quantize(y0);
+        if(!pathOpen) {
+            startPath(color, penWidth);
+            writeCommand((byte) 'M');
+            writeCoordinate(x);
+            writeCoordinate(y);
+        } else if(x != pathEndX || y != pathEndY) {
+            writeCommand((byte) 'm');
+            writeCoordinate(x - pathEndX);
+            writeCoordinate(y - pathEndY);
+            command = 'l';  // SVG takes further points after a relative move as relative lines
+        }
+        pathEndX = x;
+        pathEndY = y;
+    }
+
+    /**
+     * Extends the open path to the given point.
+     */
+    private void lineTo(double x1, double y1) {
+        long x = quantize(x1), y = quantize(y1);
+        writeCommand((byte) 'l');
+        writeCoordinate(x - pathEndX);
+        writeCoordinate(y - pathEndY);
+        pathEndX = x;
+        pathEndY = y;
+        pathSegments++;
+    }
+
+    private void startPath(Color color, double penWidth) {
+        write("<path stroke=\"#");
+        ensureSpace(6);
+        int rgb = color.getRGB();
+        for(int shift = 20; shift >= 0; shift -= 4)
+            buffer.put(HEX_DIGITS[(rgb >> shift) & 0xF]);
+        if(color.getAlpha() < 255) {
+            write("\" stroke-opacity=\"");
+            writeNumber(Math.round(color.getAlpha() * (double) PRECISION / 255));
+        }
+        write("\" stroke-width=\"");
+        writeNumber(quantize(penWidth));
+        write("\" d=\"");
+        pathOpen = true;
+        strokeColor = color;
+        strokeWidth = penWidth;
+        pathSegments = 0;
+        command = 0;
+        separatorNeeded = false;
+    }
+
+    private void endPath() {
+        if(pathOpen) {
+            write("\"/>\n");
+            pathOpen = false;
+        }
+    }
+
+    // ------ Output ------
+
+    private static long quantize(double coordinate) {
+        return Math.round(coordinate * PRECISION);
+    }
+
+    private void writeCommand(byte newCommand) {
+        if(newCommand == command)
+            return;
+        ensureSpace(1);
+        buffer.put(newCommand);
+        command = newCommand;
+        separatorNeeded = false;
+    }
+
+    /**
+     * Writes a number within path data, separated from the one before by a space only if
+     * nothing else separates them: a minus sign, or a leading decimal point after a number that
+     * already has one, so that 1.5 and .25 can be written 1.5.25.
+     */
+    private void writeCoordinate(long value) {
+        boolean leadingPoint = value > 0 && value < PRECISION;
+        if(separatorNeeded && value >= 0 && !(leadingPoint && pointWritten)) {
+            ensureSpace(1);
+            buffer.put((byte) ' ');
+        }
+        writeNumber(value);
+        separatorNeeded = true;
+    }
+
+    /**
+     * Writes the given multiple of 1 / PRECISION as a decimal, as short as possible: 150 is
+     * written as 1.5, and 50 as .5.
+     */
+    private void writeNumber(long value) {
+        ensureSpace(MAX_NUMBER_LENGTH);
+        if(value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        long whole = value / PRECISION;
+        int fraction = (int) (value % PRECISION);
+        if(whole != 0 || fraction == 0)
+            writeDigits(whole);
+        pointWritten = fraction != 0;
+        if(fraction != 0) {
+            buffer.put((byte) '.');
+            buffer.put((byte) ('0' + fraction / 10));
+            if(fraction % 10 != 0)
+                buffer.put((byte) ('0' + fraction % 10));
+        }
+    }
+
+    private void writeDigits(long value) {
+        long divisor = 1;
+        while(divisor <= value / 10)
+            divisor *= 10;
+        for(; divisor > 0; divisor /= 10)
+            buffer.put((byte) ('0' + value / divisor % 10));
+    }
+
+    private void write(String text) {
+        byte[] bytes = ascii(text);
+        ensureSpace(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void ensureSpace(int length) {
+        if(buffer.remaining() < length)
+            try {
+                flushBuffer();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    private static byte[] ascii(String text) {
+        byte[] bytes = new byte[text.length()];
+        for(int n = 0; n < bytes.length; n++)
+            bytes[n] = (byte) text.charAt(n);
+        return bytes;
+    }
+}
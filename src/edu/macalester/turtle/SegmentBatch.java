@@ -0,0 +1,103 @@
+package edu.macalester.turtle;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A sequence of turtle segments waiting to be drawn. Consecutive segments with the same pen
+ * color and width are gathered into a single polyline, which is much faster to stroke than
+ * the individual segments.
+ */
+class SegmentBatch {
+    private final List<Run> runs = new ArrayList<Run>();
+    private Run lastRun;
+    private double endX, endY;
+    private int size;
+    
+    /**
+     * Adds a segment to the end of the batch.
+     */
+    public void add(Color color, double penWidth, double x0, double y0, double x1, double y1) {
+        if(lastRun == null || !color.equals(lastRun.color) || penWidth != lastRun.penWidth) {
+            lastRun = new Run(color, penWidth);
+            runs.add(lastRun);
+            lastRun.path.moveTo(x0 + 0.5, y0 + 0.5);   // half-pixel offset, as in TurtlePaper.strokeSegment()
+        } else if(x0 != endX || y0 != endY)
+            lastRun.path.moveTo(x0 + 0.5, y0 + 0.5);
+        lastRun.path.lineTo(x1 + 0.5, y1 + 0.5);
+        endX = x1;
+        endY = y1;
+        size++;
+    }
+    
+    /**
+     * The number of segments in the batch.
+     */
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /**
+     * Strokes all the segments in the batch, in the order they were added.
+     */
+    public void drawTo(Graphics2D g) {
+        for(Run run : runs) {
+            g.setStroke(TurtlePaper.createStroke(run.penWidth));
+            g.setPaint(run.color);
+            g.draw(run.path);
+        }
+    }
+    
+    /**
+     * Strokes all the segments in the batch onto tiled paper, in the order they were added.
+     */
+    public void drawTo(TiledPaper paper) {
+        for(Run run : runs)
+            paper.drawPath(run.color, run.penWidth, run.path);
+    }
+    
+    /**
+     * Returns a rectangle enclosing every pixel drawing the batch could touch, or null if the
+     * batch is empty.
+     */
+    public Rectangle getBounds() {
+        Rectangle bounds = null;
+        for(Run run : runs) {
+            Rectangle runBounds = TurtlePaper.strokeBounds(run.path.getBounds2D(), run.penWidth);
+            if(bounds == null)
+                bounds = runBounds;
+            else
+                bounds.add(runBounds);
+        }
+        return bounds;
+    }
+    
+    /**
+     * Removes all segments from the batch.
+     */
+    public void clear() {
+        runs.clear();
+        lastRun = null;
+        size = 0;
+    }
+    
+    private static class Run {
+        private final Color color;
+        private final double penWidth;
+        private final Path2D.Double path = new Path2D.Double();
+        
+        Run(Color color, double penWidth) {
+            this.color = color;
+            this.penWidth = penWidth;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package edu.macalester.turtle;
+
+import java.awt.Color;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers every segment its turtles draw, and finds the segments in any area or near any point.
+ * Add turtles with {@link #add(Turtle)}; only segments drawn with the pen down are kept.
+ * <p>
+ * Segments are stored in large primitive arrays, about 30 bytes each, and indexed with a uniform
+ * grid: each grid cell lists the segments that pass through it. A query only looks at the segments
+ * in the cells it covers, so it takes time in proportion to the number of segments nearby, not the
+ * number drawn.
+ * <p>
+ * Segments are numbered from 0 in the order they were drawn. Their end points are stored as
+ * floats, so they are exact to about a thousandth of a pixel for drawings a few thousand pixels
+ * across.
+ */
+public class SegmentIndex implements TurtlePathObserver {
+    private static final int CHUNK_SHIFT = 16, CHUNK_SIZE = 1 << CHUNK_SHIFT, CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final double cellSize;
+    private final Map<Long, Cell> cells = new HashMap<Long, Cell>();
+
+    private final List<float[]> coords = new ArrayList<float[]>();  // x0, y0, x1, y1 per segment
+    private final List<float[]> penWidths = new ArrayList<float[]>();
+    private final List<int[]> colors = new ArrayList<int[]>();        // ARGB
+    private final List<int[]> turtleIds = new ArrayList<int[]>();
+    private int segmentCount;
+    private float maxPenWidth;
+
+    private final Map<Turtle, Integer> turtleIdMap = new IdentityHashMap<Turtle, Integer>();
+    private final List<Turtle> turtles = new ArrayList<Turtle>();
+
+    private int[] queryStamps = new int[0];  // query number that last saw each segment
+    private int queryCount;
+
+    /**
+     * Creates an empty index with grid cells 64 pixels square.
+     */
+    public SegmentIndex() {
+        this(64);
+    }
+
+    /**
+     * Creates an empty index with grid cells of the given size. Smaller cells make queries of
+     * small areas faster, but use more memory for long segments.
+     */
+    public SegmentIndex(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    // ------ Recording ------
+
+    /**
+     * Starts remembering the segments the given turtle draws.
+     */
+    public void add(Turtle turtle) {
+        turtle.addObserver(this);
+    }
+
+    @Override
+    public synchronized void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) {
+        if(!turtle.isPenDown())
+            return;
+        addSegment(turtle, turtle.getColor(), turtle.getPenWidth(), x0, y0, x1, y1);
+    }
+
+    @Override
+    public synchronized void turtleDrewPath(Turtle turtle, PenStyle pen, double[] points, int pointCount) {
+        for(int n = 1; n < pointCount; n++)
+            addSegment(turtle, pen.getColor(), pen.getWidth(),
+                points[n * 2 - 2], points[n * 2 - 1], points[n * 2], points[n * 2 + 1]);
+    }
+
+    @Override
+    public void turtleTurned(Turtle turtle, double oldDir, double newDir) {
+         // ignore
+    }
+
+    @Override
+    public void turtleChanged(Turtle turtle) {
+         // ignore
+    }
+
+    /**
+     * Adds a segment drawn by the given turtle, and returns its number.
+     */
+    public synchronized int addSegment(Turtle turtle, Color color, double penWidth, double x0, double y0, double x1, double y1) {
+        int index = segmentCount;
+        int chunk = index >>> CHUNK_SHIFT, offset = index & CHUNK_MASK;
+        if(chunk == coords.size()) {
+            coords.add(new float[CHUNK_SIZE * 4]);
+            penWidths.add(new float[CHUNK_SIZE]);
+            colors.add(new int[CHUNK_SIZE]);
+            turtleIds.add(new int[CHUNK_SIZE]);
+        }
+
+        float[] c = coords.get(chunk);
+        c[offset * 4]     = (float) x0;
+        c[offset * 4 + 1] = (float) y0;
+        c[offset * 4 + 2] = (float) x1;
+        c[offset * 4 + 3] = (float) y1;
+        penWidths.get(chunk)[offset] = (float) penWidth;
+        maxPenWidth = Math.max(maxPenWidth, (float) penWidth);
+        colors.get(chunk)[offset] = color.getRGB();
+        turtleIds.get(chunk)[offset] = turtleId(turtle);
+        segmentCount++;
+
+        addToCells(index, c[offset * 4], c[offset * 4 + 1], c[offset * 4 + 2], c[offset * 4 + 3]);  // as stored
+        return index;
+    }
+
+    /**
+     * Forgets all segments.
+     */
+    public synchronized void clear() {
+        cells.clear();
+        coords.clear();
+        penWidths.clear();
+        colors.clear();
+        turtleIds.clear();
+        segmentCount = 0;
+        maxPenWidth = 0;
+        queryStamps = new int[0];
+    }
+
+    private int turtleId(Turtle turtle) {
+        Integer id = turtleIdMap.get(turtle);
+        if(id == null) {
+            id = turtles.size();
+            turtleIdMap.put(turtle, id);
+            turtles.add(turtle);
+        }
+        return id;
+    }
+
+    // ------ Segments ------
+
+    public synchronized int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Returns the given segment's start and end points.
+     */
+    public synchronized Line2D getSegment(int index) {
+        checkIndex(index);
+        float[] c = coords.get(index >>> CHUNK_SHIFT);
+        int offset = (index & CHUNK_MASK) * 4;
+        return new Line2D.Float(c[offset], c[offset + 1], c[offset + 2], c[offset + 3]);
+    }
+
+    public synchronized Color getColor(int index) {
+        checkIndex(index);
+        return new Color(colors.get(index >>> CHUNK_SHIFT)[index & CHUNK_MASK], true);
+    }
+
+    public synchronized double getPenWidth(int index) {
+        checkIndex(index);
+        return penWidths.get(index >>> CHUNK_SHIFT)[index & CHUNK_MASK];
+    }
+
+    /**
+     * Returns the turtle that drew the given segment.
+     */
+    public synchronized Turtle getTurtle(int index) {
+        checkIndex(index);
+        return turtles.get(turtleIds.get(index >>> CHUNK_SHIFT)[index & CHUNK_MASK]);
+    }
+
+    /**
+     * The widest pen width of any segment, so that callers can widen their queries to catch
+     * thick segments just outside an area.
+     */
+    synchronized double getMaxPenWidth() {
+        return maxPenWidth;
+    }
+    
+    /**
+     * Copies the given segments' end points (four per segment), pen widths and ARGB colors into
+     * the given arrays. Segments that no longer exist, because the index has been cleared since
+     * the numbers were found, get NaN end points.
+     */
+    synchronized void readSegments(int[] indices, int offset, int count, float[] coordsOut, float[] penWidthsOut, int[] colorsOut) {
+        for(int n = 0; n < count; n++) {
+            int index = indices[offset + n];
+            if(index >= segmentCount) {
+                Arrays.fill(coordsOut, n * 4, n * 4 + 4, Float.NaN);
+                continue;
+            }
+            int chunk = index >>> CHUNK_SHIFT, chunkOffset = index & CHUNK_MASK;
+            System.arraycopy(coords.get(chunk), chunkOffset * 4, coordsOut, n * 4, 4);
+            penWidthsOut[n] = penWidths.get(chunk)[chunkOffset];
+            colorsOut[n] = colors.get(chunk)[chunkOffset];
+        }
+    }
+    
+    private void checkIndex(int index) {
+        if(index < 0 || index >= segmentCount)
+            throw new IndexOutOfBoundsException("No segment " + index + "; there are " + segmentCount);
+    }
+
+    // ------ Queries ------
+
+    /**
+     * Returns the numbers of all segments that touch the given area, in the order they were drawn.
+     * Segments are treated as lines of no width.
+     */
+    public synchronized int[] getSegments(Rectangle2D area) {
+        int[] found = new int[16];
+        int count = 0;
+        int stamp = nextQueryStamp();
+
+        long cx0 = cellIndex(area.getMinX()), cx1 = cellIndex(area.getMaxX()),
+             cy0 = cellIndex(area.getMinY()), cy1 = cellIndex(area.getMaxY());
+        List<Cell> covered = new ArrayList<Cell>();
+        if((cx1 - cx0 + 1) * (cy1 - cy0 + 1) > cells.size()) {
+            for(Map.Entry<Long, Cell> entry : cells.entrySet()) {  // fewer cells exist than the area covers
+                long key = entry.getKey(), cx = key >> 32, cy = (int) key;
+                if(cx >= cx0 && cx <= cx1 && cy >= cy0 && cy <= cy1)
+                    covered.add(entry.getValue());
+            }
+        } else
+            for(long cy = cy0; cy <= cy1; cy++)
+                for(long cx = cx0; cx <= cx1; cx++) {
+                    Cell cell = cells.get(cellKey(cx, cy));
+                    if(cell != null)
+                        covered.add(cell);
+                }
+
+        for(Cell cell : covered)
+            for(int n = 0; n < cell.size; n++) {
+                int index = cell.segments[n];
+                if(queryStamps[index] == stamp)
+                    continue;
+                queryStamps[index] = stamp;
+
+                float[] c = coords.get(index >>> CHUNK_SHIFT);
+                int offset = (index & CHUNK_MASK) * 4;
+                if(area.intersectsLine(c[offset], c[offset + 1], c[offset + 2], c[offset + 3])) {
+                    if(count == found.length)
+                        found = Arrays.copyOf(found, count * 2);
+                    found[count++] = index;
+                }
+            }
+
+        found = Arrays.copyOf(found, count);
+        Arrays.sort(found);
+        return found;
+    }
+
+    /**
+     * Returns the number of the segment closest to the given point, or -1 if no segment is within
+     * the given distance. Segments are treated as lines of no width.
+     */
+    public synchronized int getNearestSegment(double x, double y, double maxDistance) {
+        int nearest = -1;
+        double nearestDistSq = maxDistance * maxDistance;
+        for(int index : getSegments(new Rectangle2D.Double(x - maxDistance, y - maxDistance, maxDistance * 2, maxDistance * 2))) {
+            float[] c = coords.get(index >>> CHUNK_SHIFT);
+            int offset = (index & CHUNK_MASK) * 4;
+            double distSq = Line2D.ptSegDistSq(c[offset], c[offset + 1], c[offset + 2], c[offset + 3], x, y);
+            if(distSq <= nearestDistSq) {
+                nearest = index;
+                nearestDistSq = distSq;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Returns the turtles that drew any of the segments touching the given area, in the order
+     * they first drew a segment.
+     */
+    public synchronized Set<Turtle> getTurtles(Rectangle2D area) {
+        boolean[] seen = new boolean[turtles.size()];
+        for(int index : getSegments(area))
+            seen[turtleIds.get(index >>> CHUNK_SHIFT)[index & CHUNK_MASK]] = true;
+
+        Set<Turtle> result = new LinkedHashSet<Turtle>();
+        for(int id = 0; id < seen.length; id++)
+            if(seen[id])
+                result.add(turtles.get(id));
+        return result;
+    }
+
+    private int nextQueryStamp() {
+        if(queryStamps.length < segmentCount)
+            queryStamps = Arrays.copyOf(queryStamps, Math.max(segmentCount, queryStamps.length * 2));
+        if(++queryCount == 0) {  // wrapped around; old stamps could collide
+            Arrays.fill(queryStamps, 0);
+            queryCount = 1;
+        }
+        return queryCount;
+    }
+
+    // ------ Grid ------
+
+    /**
+     * A growable list of the segments passing through one grid cell.
+     */
+    private static class Cell {
+        private int[] segments = new int[4];
+        private int size;
+
+        void add(int index) {
+            if(size == segments.length)
+                segments = Arrays.copyOf(segments, size * 2);
+            segments[size++] = index;
+        }
+    }
+
+    private long cellIndex(double coordinate) {
+        return (long) Math.floor(coordinate / cellSize);
+    }
+
+    private static long cellKey(long cx, long cy) {
+        return (cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Adds the segment to every cell it passes through, a column of cells at a time.
+     */
+    private void addToCells(int index, double x0, double y0, double x1, double y1) {
+        if(x1 < x0) {  // go left to right
+            double t;
+            t = x0; x0 = x1; x1 = t;
+            t = y0; y0 = y1; y1 = t;
+        }
+        long cxStart = cellIndex(x0), cxEnd = cellIndex(x1);
+        for(long cx = cxStart; cx <= cxEnd; cx++) {
+            // Find the part of the segment within this column
+            double left  = Math.max(x0, cx * cellSize),
+                   right = Math.min(x1, (cx + 1) * cellSize);
+            double yLeft  = x1 == x0 ? y0 : y0 + (y1 - y0) * (left  - x0) / (x1 - x0),
+                   yRight = x1 == x0 ? y1 : y0 + (y1 - y0) * (right - x0) / (x1 - x0);
+            long cyStart = cellIndex(Math.min(yLeft, yRight)), cyEnd = cellIndex(Math.max(yLeft, yRight));
+            for(long cy = cyStart; cy <= cyEnd; cy++) {
+                Long key = cellKey(cx, cy);
+                Cell cell = cells.get(key);
+                if(cell == null) {
+                    cell = new Cell();
+                    cells.put(key, cell);
+                }
+                cell.add(index);
+            }
+        }
+    }
+}
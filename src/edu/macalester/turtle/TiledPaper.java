@@ -0,0 +1,541 @@
+package edu.macalester.turtle;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Virtual paper with no edges. The paper is divided into square tiles, which are only created
+ * where something is drawn, so a drawing can wander arbitrarily far in any direction and a huge
+ * canvas costs only as much memory as the parts that have ink on them.
+ * <p>
+ * A paper can also be given a spill file and a limit on the number of tiles kept in memory.
+ * The least recently used tiles beyond that limit are then moved out to the file, which is
+ * memory-mapped, and brought back when they are next drawn or displayed.
+ * <p>
+ * Like {@link TurtlePaper}, TiledPaper does no locking of its own. Call {@link #close()} when done
+ * with a paper that has a spill file, so the file is deleted.
+ *
+ * @see TurtleProgram#setUnboundedPaper(boolean)
+ */
+public class TiledPaper implements Closeable {
+    /**
+     * The width and height of each tile in pixels.
+     */
+    public static final int TILE_SIZE = 256;
+    private static final int TILE_SHIFT = 8;  // log2(TILE_SIZE)
+
+    private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+    private static final int TILES_PER_MAPPING = 64;  // spill file is mapped 16MB at a time
+
+    private final Map<Long, Tile> tiles = new HashMap<Long, Tile>();
+    private final LinkedHashMap<Long, Tile> residentTiles =
+        new LinkedHashMap<Long, Tile>(64, 0.75f, true);  // least recently used first
+    private final int maxResidentTiles;
+    private Rectangle inkBounds;
+
+    private final File spillFile;
+    private final FileChannel spillChannel;
+    private final List<MappedByteBuffer> spillMappings = new ArrayList<MappedByteBuffer>();
+    private int spillSlotCount;
+    private final List<Integer> freeSpillSlots = new ArrayList<Integer>();
+
+    /**
+     * Creates a blank white paper which keeps all its tiles in memory.
+     */
+    public TiledPaper() {
+        maxResidentTiles = Integer.MAX_VALUE;
+        spillFile = null;
+        spillChannel = null;
+    }
+
+    /**
+     * Creates a blank white paper which keeps at most the given number of tiles in memory, and
+     * moves the rest out to the given file. The file is created or overwritten, and deleted
+     * when the paper is closed.
+     */
+    public TiledPaper(String spillFilename, int maxResidentTiles) {
+        if(maxResidentTiles < 1)
+            throw new IllegalArgumentException("maxResidentTiles must be at least 1");
+        this.maxResidentTiles = maxResidentTiles;
+        spillFile = new File(spillFilename);
+        try {
+            RandomAccessFile file = new RandomAccessFile(spillFile, "rw");
+            file.setLength(0);
+            spillChannel = file.getChannel();
+        } catch (IOException e) {
+            // Throw as runtime exception so students don't have to deal with catching it
+            throw new RuntimeException(e);
+        }
+    }
+
+    // ------ Drawing ------
+
+    /**
+     * Draws a single segment onto the paper, creating only the tiles its stroke crosses.
+     */
+    public void drawSegment(Color color, double penWidth, double x0, double y0, double x1, double y1) {
+        addInk(TurtlePaper.segmentBounds(penWidth, x0, y0, x1, y1));
+        List<Long> keys = new ArrayList<Long>();
+        addCrossedTiles(x0 + 0.5, y0 + 0.5, x1 + 0.5, y1 + 0.5, penWidth, keys);  // half-pixel offset, as in TurtlePaper.strokeSegment()
+        for(Long key : keys) {
+            TurtlePaper.strokeSegment(getTile(key, true).graphics, color, penWidth, x0, y0, x1, y1);
+            evictTiles();
+        }
+    }
+
+    /**
+     * Strokes a path of straight lines onto the paper with the given pen. The path is split into
+     * the parts crossing each tile, and only the tiles it crosses are created. Curves in the path
+     * are treated as straight lines between their end points. Unlike {@link #drawSegment}, this
+     * strokes the path exactly where it is, with no half-pixel offset.
+     */
+    public void drawPath(Color color, double penWidth, Shape path) {
+        Map<Long, Path2D.Double> tilePaths = new LinkedHashMap<Long, Path2D.Double>();
+        Map<Long, Point2D> tileEnds = new HashMap<Long, Point2D>();
+        List<Long> keys = new ArrayList<Long>();
+        double[] coords = new double[6];
+        double startX = 0, startY = 0;
+        for(PathIterator iter = path.getPathIterator(null); !iter.isDone(); iter.next()) {
+            int type = iter.currentSegment(coords);
+            if(type == PathIterator.SEG_MOVETO) {
+                startX = coords[0];
+                startY = coords[1];
+                continue;
+            }
+            if(type == PathIterator.SEG_CLOSE)
+                continue;
+            int end = type == PathIterator.SEG_LINETO ? 0 : type == PathIterator.SEG_QUADTO ? 2 : 4;
+            double endX = coords[end], endY = coords[end + 1];
+
+            keys.clear();
+            addCrossedTiles(startX, startY, endX, endY, penWidth, keys);
+            for(Long key : keys) {
+                Path2D.Double tilePath = tilePaths.get(key);
+                Point2D tileEnd = tileEnds.get(key);
+                if(tilePath == null) {
+                    tilePath = new Path2D.Double();
+                    tilePaths.put(key, tilePath);
+                }
+                if(tileEnd == null || tileEnd.getX() != startX || tileEnd.getY() != startY)
+                    tilePath.moveTo(startX, startY);
+                tilePath.lineTo(endX, endY);
+                tileEnds.put(key, new Point2D.Double(endX, endY));
+            }
+            startX = endX;
+            startY = endY;
+        }
+
+        BasicStroke stroke = TurtlePaper.createStroke(penWidth);
+        for(Map.Entry<Long, Path2D.Double> entry : tilePaths.entrySet()) {
+            Graphics2D g = getTile(entry.getKey(), true).graphics;
+            g.setStroke(stroke);
+            g.setPaint(color);
+            g.draw(entry.getValue());
+            evictTiles();
+        }
+        if(!tilePaths.isEmpty())
+            addInk(TurtlePaper.strokeBounds(path.getBounds2D(), penWidth));
+    }
+
+    /**
+     * Draws an image onto the paper with its top left corner at the given point.
+     */
+    public void drawImage(BufferedImage image, int x, int y) {
+        Rectangle area = new Rectangle(x, y, image.getWidth(), image.getHeight());
+        if(area.isEmpty())
+            return;
+        addInk(area);
+        for(int ty = tileIndex(area.y); ty <= tileIndex(area.y + area.height - 1); ty++)
+            for(int tx = tileIndex(area.x); tx <= tileIndex(area.x + area.width - 1); tx++) {
+                getTile(tileKey(tx, ty), true).graphics.drawImage(image, x, y, null);
+                evictTiles();
+            }
+    }
+
+    /**
+     * Draws the given area of the paper onto the given graphics context, in paper coordinates.
+     * Parts of the area with no tiles are filled with white.
+     */
+    public void drawTo(Graphics2D g, Rectangle area) {
+        for(int ty = tileIndex(area.y); ty <= tileIndex(area.y + area.height - 1); ty++)
+            for(int tx = tileIndex(area.x); tx <= tileIndex(area.x + area.width - 1); tx++) {
+                Tile tile = getTile(tileKey(tx, ty), false);
+                if(tile != null) {
+                    g.drawImage(tile.image, tx * TILE_SIZE, ty * TILE_SIZE, null);
+                    evictTiles();
+                } else {
+                    g.setColor(Color.WHITE);
+                    g.fillRect(tx * TILE_SIZE, ty * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+                }
+            }
+    }
+
+    /**
+     * Removes everything from the paper.
+     */
+    public void clear() {
+        for(Tile tile : residentTiles.values())
+            tile.graphics.dispose();
+        tiles.clear();
+        residentTiles.clear();
+        freeSpillSlots.clear();
+        for(int slot = 0; slot < spillSlotCount; slot++)
+            freeSpillSlots.add(slot);
+        inkBounds = null;
+    }
+
+    // ------ Export ------
+
+    /**
+     * Returns a rectangle enclosing everything drawn so far, or null if nothing has been drawn.
+     */
+    public Rectangle getInkBounds() {
+        return inkBounds == null ? null : new Rectangle(inkBounds);
+    }
+
+    /**
+     * Returns a new image of the given area of the paper.
+     * 
+     * @throws IllegalArgumentException if the area has more pixels than an image can hold
+     */
+    public BufferedImage getImage(Rectangle area) {
+        if((long) area.width * area.height > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(
+                "Area is too large for one image: " + area.width + " x " + area.height + " pixels");
+        BufferedImage image = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.translate(-area.x, -area.y);
+        drawTo(g, area);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Writes everything drawn so far to the given file in PNG format. The image is written a
+     * strip of tiles at a time, so the drawing need not fit in memory as a single image.
+     * 
+     * @throws IllegalStateException if the drawing is too wide to export, more than about
+     *         8 million pixels
+     */
+    public void writePNG(String filename) {
+        Rectangle area = getInkBounds();
+        if(area == null)
+            area = new Rectangle(0, 0, 1, 1);
+        if((long) area.width * TILE_SIZE > Integer.MAX_VALUE)
+            throw new IllegalStateException("Drawing is too wide to export: " + area.width + " pixels");
+        try {
+            OutputStream file = new BufferedOutputStream(new FileOutputStream(filename));
+            try {
+                writePNG(area, file);
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            // Throw as runtime exception so students don't have to deal with catching it
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The number of tiles that have been drawn on, whether in memory or in the spill file.
+     */
+    public int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * The number of tiles currently in memory.
+     */
+    public int getResidentTileCount() {
+        return residentTiles.size();
+    }
+
+    /**
+     * Deletes the spill file, if any. The paper cannot be used afterward.
+     */
+    public void close() {
+        clear();
+        if(spillChannel == null)
+            return;
+        spillMappings.clear();
+        try {
+            spillChannel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if(!spillFile.delete())
+            spillFile.deleteOnExit();  // some platforms keep mapped files until they are collected
+    }
+
+    // ------ PNG encoding ------
+
+    private static final byte[] PNG_SIGNATURE = { (byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n' };
+    private static final int IDAT_SIZE = 1 << 16;
+
+    /**
+     * Encodes the given area as an 8-bit RGB PNG, rendering one row of tiles at a time.
+     */
+    private void writePNG(Rectangle area, OutputStream file) throws IOException {
+        DataOutputStream out = new DataOutputStream(file);
+        out.write(PNG_SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(area.width);
+        headerData.writeInt(area.height);
+        headerData.write(new byte[] { 8, 2, 0, 0, 0 });  // 8 bits per channel, RGB, no interlacing
+        writeChunk(out, "IHDR", header.toByteArray(), header.size());
+
+        Deflater deflater = new Deflater();
+        DeflaterOutputStream pixels = new DeflaterOutputStream(new ImageDataStream(out), deflater, IDAT_SIZE);
+        byte[] row = new byte[1 + area.width * 3];
+        row[0] = 1;  // "sub" filter: each byte is stored as its difference from the pixel to its left
+        int bottom = area.y + area.height;
+        for(int top = area.y; top < bottom; ) {
+            int stripBottom = Math.min(bottom, (tileIndex(top) + 1) * TILE_SIZE);
+            BufferedImage strip = getImage(new Rectangle(area.x, top, area.width, stripBottom - top));
+            int[] data = ((DataBufferInt) strip.getRaster().getDataBuffer()).getData();
+            for(int y = 0; y < stripBottom - top; y++) {
+                int previous = 0;
+                for(int x = 0, i = 1; x < area.width; x++) {
+                    int rgb = data[y * area.width + x];
+                    row[i++] = (byte) ((rgb >> 16) - (previous >> 16));
+                    row[i++] = (byte) ((rgb >> 8) - (previous >> 8));
+                    row[i++] = (byte) (rgb - previous);
+                    previous = rgb;
+                }
+                pixels.write(row);
+            }
+            top = stripBottom;
+        }
+        pixels.close();  // flushes the last image data chunk, but leaves the file open
+        deflater.end();
+
+        writeChunk(out, "IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Splits compressed image data into IDAT chunks as it is written.
+     */
+    private static class ImageDataStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte[] buffer = new byte[IDAT_SIZE];
+        private int length;
+
+        ImageDataStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while(len > 0) {
+                int n = Math.min(len, buffer.length - length);
+                System.arraycopy(b, off, buffer, length, n);
+                length += n;
+                off += n;
+                len -= n;
+                if(length == buffer.length)
+                    flush();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if(length > 0) {
+                writeChunk(out, "IDAT", buffer, length);
+                length = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    // ------ Tiles ------
+
+    private static class Tile {
+        private final int tx, ty;
+        private BufferedImage image;    // null if spilled
+        private Graphics2D graphics;
+        private int spillSlot = -1;     // where the tile was last spilled, or -1 if never
+
+        Tile(int tx, int ty) {
+            this.tx = tx;
+            this.ty = ty;
+        }
+    }
+
+    private static int tileIndex(int coordinate) {
+        return coordinate >> TILE_SHIFT;  // rounds down, even for negative coordinates
+    }
+
+    private static long tileKey(int tx, int ty) {
+        return ((long) tx << 32) | (ty & 0xFFFFFFFFL);
+    }
+
+    private static int tileIndex(double coordinate) {
+        return (int) Math.floor(coordinate / TILE_SIZE);
+    }
+
+    /**
+     * Adds the keys of the tiles that stroking the given line with the given pen could touch,
+     * in rows from top to bottom. Each row of tiles gets only the part of the line that reaches
+     * it, so a long diagonal line touches a few tiles per row rather than its whole bounding box.
+     */
+    private static void addCrossedTiles(double x0, double y0, double x1, double y1, double penWidth, List<Long> keys) {
+        double margin = penWidth / 2 + 1;  // as in TurtlePaper.strokeBounds()
+        int firstRow = tileIndex(Math.min(y0, y1) - margin), lastRow = tileIndex(Math.max(y0, y1) + margin);
+        for(int ty = firstRow; ty <= lastRow; ty++) {
+            double t0 = 0, t1 = 1;  // the part of the line within the margin of this row
+            if(y0 != y1) {
+                double top = ((double) ty * TILE_SIZE - margin - y0) / (y1 - y0),
+                       bottom = ((double) (ty + 1) * TILE_SIZE + margin - y0) / (y1 - y0);
+                t0 = Math.max(0, Math.min(top, bottom));
+                t1 = Math.min(1, Math.max(top, bottom));
+                if(t0 > t1)
+                    continue;
+            }
+            double xa = x0 + (x1 - x0) * t0, xb = x0 + (x1 - x0) * t1;
+            int lastColumn = tileIndex(Math.max(xa, xb) + margin);
+            for(int tx = tileIndex(Math.min(xa, xb) - margin); tx <= lastColumn; tx++)
+                keys.add(tileKey(tx, ty));
+        }
+    }
+
+    private void addInk(Rectangle area) {
+        if(inkBounds == null)
+            inkBounds = new Rectangle(area);
+        else
+            inkBounds.add(area);
+    }
+
+    /**
+     * Returns the tile with the given key, in memory, or null if it does not exist and create
+     * is false.
+     */
+    private Tile getTile(Long key, boolean create) {
+        Tile tile = residentTiles.get(key);  // marks the tile recently used
+        if(tile != null)
+            return tile;
+
+        tile = tiles.get(key);
+        if(tile == null) {
+            if(!create)
+                return null;
+            tile = new Tile((int) (key >> 32), (int) (long) key);
+            tiles.put(key, tile);
+        }
+        load(tile);
+        residentTiles.put(key, tile);
+        return tile;
+    }
+
+    private void load(Tile tile) {
+        tile.image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        if(tile.spillSlot >= 0)
+            spillBuffer(tile.spillSlot).get(pixels(tile.image));
+
+        tile.graphics = tile.image.createGraphics();
+        if(tile.spillSlot < 0) {
+            tile.graphics.setColor(Color.WHITE);
+            tile.graphics.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+        }
+        TurtlePaper.enableAntialiasing(tile.graphics);
+        tile.graphics.translate(-tile.tx * TILE_SIZE, -tile.ty * TILE_SIZE);
+    }
+
+    /**
+     * Moves the least recently used tiles out to the spill file until few enough are in memory.
+     * The tile used last always stays.
+     */
+    private void evictTiles() {
+        for(Iterator<Tile> iter = residentTiles.values().iterator(); residentTiles.size() > maxResidentTiles; ) {
+            Tile tile = iter.next();
+            if(tile.spillSlot < 0)
+                tile.spillSlot = freeSpillSlots.isEmpty()
+                    ? spillSlotCount++
+                    : freeSpillSlots.remove(freeSpillSlots.size() - 1);
+            spillBuffer(tile.spillSlot).put(pixels(tile.image));
+
+            tile.graphics.dispose();
+            tile.graphics = null;
+            tile.image = null;
+            iter.remove();
+        }
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Returns a buffer covering the given slot of the spill file, mapping more of the file if needed.
+     */
+    private IntBuffer spillBuffer(int slot) {
+        int mappingIndex = slot / TILES_PER_MAPPING;
+        try {
+            while(spillMappings.size() <= mappingIndex) {
+                long start = (long) spillMappings.size() * TILES_PER_MAPPING * TILE_BYTES;
+                spillMappings.add(spillChannel.map(
+                    FileChannel.MapMode.READ_WRITE, start, (long) TILES_PER_MAPPING * TILE_BYTES));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        MappedByteBuffer mapping = spillMappings.get(mappingIndex);
+        int offset = (slot % TILES_PER_MAPPING) * TILE_BYTES;
+        return ((ByteBuffer) mapping.duplicate().position(offset).limit(offset + TILE_BYTES))
+            .slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+}
@@ -5,8 +5,7 @@ import static java.lang.Math.cos;
 import static java.lang.Math.sin;
 
 import java.awt.Color;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * A system for drawing vector graphics using relative positioning.
@@ -28,17 +27,47 @@ import java.util.List;
  * If you only change the step size using {@link #scaleStepBy(double) scaleStepBy()} (and not the absolute
  * setter {@link #setStepSize(double) setStepSize()}, you can easily rescale an entire turtle program by
  * changing the initial step size.
+ * <p>
+ * To run a long series of commands quickly, pack them into arrays and pass them all at once to
+ * {@link #execute(byte[], double[], int, int) execute()}. To change several properties at once
+ * without notifying observers of each one, surround the changes with {@link #beginChanges()}
+ * and {@link #commitChanges()}.
  * 
  * @see <a href="http://en.wikipedia.org/wiki/Turtle_graphics">Wikipedia: Turtle graphics</a>
  * @see <a href="http://en.wikipedia.org/wiki/Turtle_(robot)">Wikipedia: Turtle robot</a>
  * @author Paul Cantrell
  */
 public class Turtle {
-    private final List<TurtleObserver> observers;
+    /**
+     * Opcodes for {@link #execute(byte[], double[], int, int) execute()}. Each command takes the
+     * argument at the same index as its opcode.
+     */
+    public static final byte
+        FORWARD    = 1,   // argument: number of steps; negative moves backward
+        RIGHT      = 2,   // argument: degrees
+        LEFT       = 3,   // argument: degrees
+        SCALE_STEP = 4,   // argument: step size multiplier
+        PEN_UP     = 5,   // argument ignored
+        PEN_DOWN   = 6;   // argument ignored
+    
+    /**
+     * The most points passed to {@link TurtlePathObserver#turtleDrewPath} at once. Longer paths
+     * are split, so the buffer stays small however long the program.
+     */
+    private static final int MAX_PATH_POINTS = 4096;
+    
+    private volatile TurtleObserver[] observers;  // copy-on-write, so notifying allocates nothing
+    private volatile Observers executeObservers;   // the same observers, split for execute()
     private double x, y, stepSize, direction;
+    private double headingX, headingY;  // unit vector for direction; valid only if headingValid
+    private boolean headingValid;
     private double penWidth;
     private Color color;
     private boolean drawing;
+    private PenStyle penStyle;    // snapshot of color and penWidth, or null if not taken since they changed
+    private double[] pathPoints;  // reused by execute()
+    private int changeDepth;      // number of beginChanges() not yet committed
+    private boolean changePending;  // changed while changeDepth > 0, and observers not yet told
     
     /**
      * Creates a turtle with a black pen at the given initial position.
@@ -59,7 +88,7 @@ public class Turtle {
         stepSize = 30;
         drawing = true;
         
-        this.observers = new ArrayList<TurtleObserver>();
+        setObservers(new TurtleObserver[0]);
     }
     
     // ------ Turtle commands ------
@@ -76,10 +105,9 @@ public class Turtle {
      * Draws a line segment if the pen is down.
      */
     public void forward(double steps) {
+        flushChanges();
         double x0 = x, y0 = y;
-        
-        x += steps * stepSize * cos(direction);
-        y += steps * stepSize * sin(direction);
+        move(steps);
         
         for(TurtleObserver observer : observers)
             observer.turtleMoved(this, x0, y0, x, y);
@@ -104,9 +132,9 @@ public class Turtle {
      * Turns the turtle to its right (clockwise when viewed from above) by the given number of degrees.
      */
     public void right(double degrees) {
+        flushChanges();
         double oldDirection = getDirection();
-        
-        direction = (direction + degrees * PI / 180) % (2 * PI);
+        turn(degrees);
         
         for(TurtleObserver observer : observers)
             observer.turtleTurned(this, oldDirection, getDirection());
@@ -147,6 +175,136 @@ public class Turtle {
         return drawing;
     }
     
+    private void move(double steps) {
+        if(!headingValid) {
+            headingX = cos(direction);
+            headingY = sin(direction);
+            headingValid = true;
+        }
+        x += steps * stepSize * headingX;
+        y += steps * stepSize * headingY;
+    }
+    
+    private void turn(double degrees) {
+        direction = (direction + degrees * PI / 180) % (2 * PI);
+        headingValid = false;
+    }
+    
+    // ------ Bulk commands ------
+    
+    /**
+     * Runs count commands, starting at the given offset in the arrays: command n is the opcode
+     * ops[n] (such as {@link #FORWARD}) applied to the argument args[n]. This has the same result
+     * as calling the corresponding methods one at a time, but is faster for long programs, which
+     * can for example be generated in bulk with {@link edu.macalester.generator.Generator#next(double[], int, int)}.
+     * <p>
+     * Ordinary observers are notified of each command as usual. A {@link TurtlePathObserver} is
+     * instead notified once for each series of moves and turns between pen and step size changes,
+     * after the ordinary observers have been notified of the moves and turns in that series:
+     * through {@link TurtlePathObserver#turtleDrewPath turtleDrewPath()} if the pen is down and
+     * the turtle moved, and otherwise through {@link TurtleObserver#turtleChanged turtleChanged()}.
+     * <p>
+     * Consecutive pen and step size changes are reported together, as one change, as if they
+     * were surrounded by {@link #beginChanges()} and {@link #commitChanges()}.
+     * 
+     * @throws IllegalArgumentException if an opcode is unknown; the commands before it have
+     *         already been run
+     */
+    public void execute(byte[] ops, double[] args, int offset, int count) {
+        Observers observers = executeObservers;
+        int end = offset + count;
+        beginChanges();
+        try {
+            for(int i = offset; i < end; ) {
+                switch(ops[i]) {
+                    case FORWARD:
+                    case RIGHT:
+                    case LEFT:
+                        flushChanges();
+                        i = executePath(ops, args, i, end, observers.stepObservers, observers.pathObservers);
+                        break;
+                    case SCALE_STEP:
+                        scaleStepBy(args[i++]);
+                        break;
+                    case PEN_UP:
+                        penUp();
+                        i++;
+                        break;
+                    case PEN_DOWN:
+                        penDown();
+                        i++;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown turtle opcode " + ops[i] + " at index " + i);
+                }
+            }
+        } finally {
+            commitChanges();
+        }
+    }
+    
+    /**
+     * Runs moves and turns starting at the given index, up to the first other command or the end,
+     * and returns the index of the first command not run.
+     */
+    private int executePath(byte[] ops, double[] args, int start, int end,
+                            TurtleObserver[] stepObservers, TurtlePathObserver[] pathObservers) {
+        boolean trackPath = pathObservers.length > 0 && drawing;
+        PenStyle pen = null;
+        double[] points = pathPoints;
+        int pointCount = 0;
+        if(trackPath) {
+            pen = getPenStyle();
+            if(points == null)
+                points = pathPoints = new double[MAX_PATH_POINTS * 2];
+            points[0] = x;
+            points[1] = y;
+            pointCount = 1;
+        }
+        
+        int i;
+        for(i = start; i < end; i++) {
+            byte op = ops[i];
+            if(op == FORWARD) {
+                if(pointCount == MAX_PATH_POINTS) {  // pass on what we have, and continue from here
+                    for(TurtlePathObserver observer : pathObservers)
+                        observer.turtleDrewPath(this, pen, points, pointCount);
+                    points[0] = x;
+                    points[1] = y;
+                    pointCount = 1;
+                }
+                double x0 = x, y0 = y;
+                move(args[i]);
+                for(TurtleObserver observer : stepObservers)
+                    observer.turtleMoved(this, x0, y0, x, y);
+                if(trackPath) {
+                    points[pointCount * 2] = x;
+                    points[pointCount * 2 + 1] = y;
+                    pointCount++;
+                }
+            } else if(op == RIGHT || op == LEFT) {
+                if(stepObservers.length == 0)
+                    turn(op == RIGHT ? args[i] : -args[i]);
+                else {
+                    double oldDirection = getDirection();
+                    turn(op == RIGHT ? args[i] : -args[i]);
+                    double newDirection = getDirection();
+                    for(TurtleObserver observer : stepObservers)
+                        observer.turtleTurned(this, oldDirection, newDirection);
+                }
+            } else
+                break;
+        }
+        
+        if(pointCount > 1)
+            for(TurtlePathObserver observer : pathObservers)
+                observer.turtleDrewPath(this, pen, points, pointCount);
+        else
+            for(TurtlePathObserver observer : pathObservers)
+                observer.turtleChanged(this);  // moved with the pen up, or only turned
+        return i;
+    }
+    
     // ------ Direct property access ------
     
     public double getX() {
@@ -182,6 +340,7 @@ public class Turtle {
     
     public void setPenWidth(double strokeWidth) {
         this.penWidth = strokeWidth;
+        penStyle = null;
         changed();
     }
     
@@ -191,6 +350,7 @@ public class Turtle {
     
     public void setDirection(double direction) {
         this.direction = direction * PI / 180;
+        headingValid = false;
         changed();
     }
     
@@ -200,27 +360,161 @@ public class Turtle {
     
     public void setColor(Color color) {
         this.color = color;
+        penStyle = null;
         changed();
     }
     
+    /**
+     * Returns a snapshot of the pen's current color and width. The same snapshot is returned
+     * until the color or width changes.
+     */
+    public PenStyle getPenStyle() {
+        PenStyle style = penStyle;
+        if(style == null)
+            penStyle = style = new PenStyle(color, penWidth);
+        return style;
+    }
+    
+    // ------ Batched changes ------
+    
+    /**
+     * Starts a batch of changes. Until the matching {@link #commitChanges()}, changes to the
+     * turtle's properties, such as {@link #setColor(Color) setColor()} and {@link #penUp()}, are
+     * not reported to observers one by one; instead observers get a single
+     * {@link TurtleObserver#turtleChanged(Turtle) turtleChanged()} with the final state, either
+     * when the batch is committed or just before the turtle next moves or turns, whichever comes
+     * first. Observers therefore still see every move and turn with the pen it was made with.
+     * <p>
+     * Batches may be nested; only the outermost commit reports the changes. Use a finally block
+     * to make sure each batch is committed:
+     * <pre>
+     * turtle.beginChanges();
+     * try {
+     *     turtle.setColor(Color.RED);
+     *     turtle.setPenWidth(3);
+     * } finally {
+     *     turtle.commitChanges();
+     * }
+     * </pre>
+     */
+    public void beginChanges() {
+        changeDepth++;
+    }
+    
+    /**
+     * Ends the batch of changes started by the last {@link #beginChanges()}, and reports any
+     * changes not yet reported if it was the outermost batch.
+     * 
+     * @throws IllegalStateException if there is no batch to end
+     */
+    public void commitChanges() {
+        if(changeDepth == 0)
+            throw new IllegalStateException("commitChanges() called without beginChanges()");
+        if(--changeDepth == 0)
+            flushChanges();
+    }
+    
+    /**
+     * Reports changes held back by a batch, so observers have the current state before a move or turn.
+     */
+    private void flushChanges() {
+        if(changePending) {
+            changePending = false;
+            for(TurtleObserver observer : observers)
+                observer.turtleChanged(this);
+        }
+    }
+    
     // ------ Observers ------
     
     /**
      * Adds an observer to be notified of this turtle's motions (typically for the purpose of
      * drawing them to paper).
      */
-    public void addObserver(TurtleObserver observer) {
-        observers.add(observer);
+    public synchronized void addObserver(TurtleObserver observer) {
+        TurtleObserver[] newObservers = Arrays.copyOf(observers, observers.length + 1);
+        newObservers[observers.length] = observer;
+        setObservers(newObservers);
     }
 
     /**
      * Removes the given observer.
      */
-    public void removeObserver(TurtleObserver observer) {
-        observers.remove(observer);
+    public synchronized void removeObserver(TurtleObserver observer) {
+        for(int i = 0; i < observers.length; i++)
+            if(observers[i].equals(observer)) {
+                TurtleObserver[] newObservers = new TurtleObserver[observers.length - 1];
+                System.arraycopy(observers, 0, newObservers, 0, i);
+                System.arraycopy(observers, i + 1, newObservers, i, observers.length - i - 1);
+                setObservers(newObservers);
+                return;
+            }
+    }
+    
+    private void setObservers(TurtleObserver[] observers) {
+        this.observers = observers;
+        executeObservers = new Observers(observers);
+    }
+    
+    /**
+     * A turtle's observers, divided into those that take whole paths from {@link Turtle#execute}
+     * and those that take every step.
+     */
+    private static class Observers {
+        final TurtleObserver[] stepObservers;
+        final TurtlePathObserver[] pathObservers;
+        
+        Observers(TurtleObserver[] observers) {
+            int pathObserverCount = 0;
+            for(TurtleObserver observer : observers)
+                if(observer instanceof TurtlePathObserver)
+                    pathObserverCount++;
+            stepObservers = new TurtleObserver[observers.length - pathObserverCount];
+            pathObservers = new TurtlePathObserver[pathObserverCount];
+            for(int i = 0, s = 0, p = 0; i < observers.length; i++)
+                if(observers[i] instanceof TurtlePathObserver)
+                    pathObservers[p++] = (TurtlePathObserver) observers[i];
+                else
+                    stepObservers[s++] = observers[i];
+        }
+    }
+
+    // ------ Replay ------
+    
+    // These let a recording drive the turtle, reproducing the recorded notifications exactly.
+    
+    void replayMove(double x0, double y0, double x1, double y1) {
+        x = x1;
+        y = y1;
+        for(TurtleObserver observer : observers)
+            observer.turtleMoved(this, x0, y0, x1, y1);
+    }
+    
+    void replayTurn(double oldDir, double newDir) {
+        direction = newDir * PI / 180;
+        headingValid = false;
+        for(TurtleObserver observer : observers)
+            observer.turtleTurned(this, oldDir, newDir);
+    }
+    
+    void replayChange(double x, double y, double direction, double stepSize, double penWidth, Color color, boolean drawing) {
+        this.x = x;
+        this.y = y;
+        this.direction = direction * PI / 180;
+        this.headingValid = false;
+        this.stepSize = stepSize;
+        this.penWidth = penWidth;
+        this.color = color;
+        this.drawing = drawing;
+        this.penStyle = null;
+        changed();
     }
 
     private void changed() {
+        if(changeDepth > 0) {
+            changePending = true;
+            return;
+        }
         for(TurtleObserver observer : observers)
             observer.turtleChanged(this);
     }
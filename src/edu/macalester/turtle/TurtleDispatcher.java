@@ -0,0 +1,457 @@
+package edu.macalester.turtle;
+
+import java.awt.Color;
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Passes a turtle's actions to observers on other threads, so that slow observers do not slow
+ * the turtle down. Each observer watches a <b>mirror</b>: a stand-in turtle, created with
+ * {@link #createMirror(Backpressure)}, which repeats the original turtle's actions on a thread
+ * of its own. Add observers to the mirror instead of the original turtle, for example with
+ * {@link TurtleProgram#add(Turtle)}, and they are notified exactly as if they were watching the
+ * original, only later.
+ * <p>
+ * Actions are passed through a ring buffer of preallocated slots, written only by the thread
+ * driving the turtle and read by every mirror at its own pace. When a mirror falls so far
+ * behind that the buffer is full, its {@link Backpressure} policy decides what happens. A turtle
+ * therefore runs as fast as its slowest mirror that must not lose anything, and no slower.
+ * <p>
+ * Create mirrors before the turtle starts moving, or on the thread driving it. Call
+ * {@link #close()} when the turtle is done, to let the mirrors catch up and stop their threads.
+ * A mirror with nothing to do sleeps until the turtle acts again.
+ */
+public class TurtleDispatcher implements TurtleObserver, Closeable {
+    /**
+     * What happens when a mirror falls a full buffer behind the turtle.
+     */
+    public enum Backpressure {
+        /**
+         * The turtle waits for the mirror. Nothing is lost.
+         */
+        BLOCK,
+
+        /**
+         * The turtle carries on, and the mirror skips ahead to where the turtle is now, jumping
+         * straight there with a single {@link TurtleObserver#turtleChanged(Turtle) turtleChanged()}.
+         * Everything in between is lost, including drawing, so this suits observers that only
+         * show the turtle, or animations that would rather drop frames than fall behind.
+         */
+        DROP,
+
+        /**
+         * The turtle waits for the mirror, as with {@link #BLOCK}, but a mirror that is behind
+         * catches up by combining the turns and changes between two moves: several turns become
+         * one turn, and changes replace everything since the last move with one change to the
+         * latest state. Moves are never lost.
+         */
+        COALESCE
+    }
+
+    private static final byte MOVED = 1, TURNED = 2, CHANGED = 3;
+
+    /**
+     * The most events a mirror takes from the buffer at once.
+     */
+    private static final int MAX_BATCH_SIZE = 256;
+
+    /**
+     * How many times an idle mirror checks for new events before sleeping until the turtle wakes it.
+     */
+    private static final int IDLE_SPINS = 100;
+
+    /**
+     * Consumer sequence values with special meanings.
+     */
+    private static final long LAPPED = Long.MIN_VALUE,  // a DROP mirror the turtle has overtaken
+                              DETACHED = Long.MAX_VALUE;  // a mirror that has stopped
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final Turtle turtle;
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong(-1);  // last published event
+    private long nextSequence;      // used only by the turtle's thread
+    private long cachedGate = -1;   // no mirror is further behind than this; used only by the turtle's thread
+    private volatile boolean gateStale;  // a mirror has joined since cachedGate was computed
+    private volatile Mirror[] mirrors = new Mirror[0];
+    private boolean closing;          // close() has begun; guarded by this
+    private volatile boolean closed;  // mirrors should stop
+
+    /**
+     * Creates a dispatcher for the given turtle with room for 65536 events.
+     */
+    public TurtleDispatcher(Turtle turtle) {
+        this(turtle, 1 << 16);
+    }
+
+    /**
+     * Creates a dispatcher for the given turtle with room for the given number of events, which
+     * must be a power of two.
+     */
+    public TurtleDispatcher(Turtle turtle, int capacity) {
+        if(capacity < 2 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        this.turtle = turtle;
+        slots = new Slot[capacity];
+        for(int n = 0; n < capacity; n++)
+            slots[n] = new Slot();
+        mask = capacity - 1;
+        turtle.addObserver(this);
+    }
+
+    /**
+     * Creates a turtle which repeats the original turtle's actions from now on, on a new thread.
+     * The mirror starts in the original's current state.
+     */
+    public synchronized Turtle createMirror(Backpressure backpressure) {
+        if(closing)
+            throw new IllegalStateException("Cannot create mirror: dispatcher is already closed");
+        Mirror mirror = new Mirror(backpressure);
+        mirror.sequence.set(cursor.get());
+        mirror.replayed = cursor.get();
+        mirror.start();
+
+        Mirror[] newMirrors = Arrays.copyOf(mirrors, mirrors.length + 1);
+        newMirrors[mirrors.length] = mirror;
+        mirrors = newMirrors;
+        gateStale = true;
+        return mirror.turtle;
+    }
+
+    /**
+     * Waits until every mirror has caught up with the turtle.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void drain() throws InterruptedException {
+        drain(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Waits until every mirror has caught up with the turtle, or the given time has passed.
+     * Returns true if the mirrors caught up.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime(), timeoutNanos = unit.toNanos(timeout);
+        long target = cursor.get();
+        for(Mirror mirror : mirrors)
+            for(int attempt = 0; ; attempt++) {
+                if(mirror.replayed >= target || mirror.sequence.get() == DETACHED)
+                    break;
+                if(Thread.interrupted())
+                    throw new InterruptedException();
+                if(System.nanoTime() - start >= timeoutNanos)
+                    return false;
+                backOff(attempt);
+            }
+        return true;
+    }
+
+    /**
+     * Detaches from the turtle, waits for the mirrors to catch up, and stops their threads.
+     * Does nothing if the dispatcher is already closed or closing.
+     * <p>
+     * If the calling thread is interrupted while waiting, for example because an observer of a
+     * mirror is waiting for that same thread, the mirrors are stopped where they are, and the
+     * thread's interrupt status is left set.
+     */
+    public void close() {
+        close(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Detaches from the turtle and stops the mirrors' threads, first waiting up to the given
+     * time for them to catch up. Returns true if they caught up; otherwise the events they had
+     * yet to repeat are lost. Does nothing and returns true if the dispatcher is already closed
+     * or closing.
+     */
+    public boolean close(long timeout, TimeUnit unit) {
+        synchronized(this) {
+            if(closing)
+                return true;
+            closing = true;
+        }
+        turtle.removeObserver(this);
+
+        boolean drained;
+        try {
+            drained = drain(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        closed = true;
+        for(Mirror mirror : mirrors)
+            LockSupport.unpark(mirror.thread);
+        if(drained)  // otherwise a mirror may be stuck in an observer, so don't wait for it
+            for(Mirror mirror : mirrors)
+                try {
+                    mirror.thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+        return drained;
+    }
+
+    // ------ Publishing ------
+
+    @Override
+    public void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) {
+        long sequence = claim();
+        Slot slot = slots[(int) sequence & mask];
+        slot.type = MOVED;
+        slot.a = x0;
+        slot.b = y0;
+        slot.c = x1;
+        slot.d = y1;
+        slot.capture(turtle);
+        publish(sequence);
+    }
+
+    @Override
+    public void turtleTurned(Turtle turtle, double oldDir, double newDir) {
+        long sequence = claim();
+        Slot slot = slots[(int) sequence & mask];
+        slot.type = TURNED;
+        slot.a = oldDir;
+        slot.b = newDir;
+        slot.capture(turtle);
+        publish(sequence);
+    }
+
+    @Override
+    public void turtleChanged(Turtle turtle) {
+        long sequence = claim();
+        Slot slot = slots[(int) sequence & mask];
+        slot.type = CHANGED;
+        slot.capture(turtle);
+        publish(sequence);
+    }
+
+    /**
+     * Makes the event with the given sequence number visible to the mirrors, waking any that
+     * are asleep waiting for it.
+     */
+    private void publish(long sequence) {
+        cursor.set(sequence);
+        for(Mirror mirror : mirrors)
+            if(mirror.sleeping) {
+                mirror.sleeping = false;
+                LockSupport.unpark(mirror.thread);
+            }
+    }
+
+    /**
+     * Returns the sequence number of the next event, once every mirror is done with the slot
+     * it will overwrite.
+     */
+    private long claim() {
+        long sequence = nextSequence++;
+        long wrapPoint = sequence - slots.length;  // the event whose slot this overwrites
+        if(wrapPoint > cachedGate || gateStale) {
+            gateStale = false;
+            cachedGate = awaitMirrors(wrapPoint);
+        }
+        return sequence;
+    }
+
+    /**
+     * Waits for all mirrors that must not lose events to finish with the given event, and marks
+     * other mirrors that have not as lapped. Returns the sequence number of the earliest event
+     * a mirror might still need.
+     */
+    private long awaitMirrors(long wrapPoint) {
+        long gate = Long.MAX_VALUE;
+        for(Mirror mirror : mirrors)
+            for(int attempt = 0; ; attempt++) {
+                long sequence = mirror.sequence.get();
+                if(sequence == LAPPED || sequence == DETACHED)
+                    break;
+                if(sequence >= wrapPoint) {
+                    gate = Math.min(gate, sequence);
+                    break;
+                }
+                if(mirror.backpressure == Backpressure.DROP) {
+                    if(mirror.sequence.compareAndSet(sequence, LAPPED))
+                        break;
+                } else
+                    backOff(attempt);
+            }
+        return gate == Long.MAX_VALUE ? wrapPoint : gate;
+    }
+
+    private static void backOff(int attempt) {
+        if(attempt < 100)
+            Thread.yield();
+        else
+            LockSupport.parkNanos(100000);
+    }
+
+    /**
+     * One event, with the turtle's state right after it.
+     */
+    private static class Slot {
+        byte type;
+        double a, b, c, d;  // x0, y0, x1, y1 if moved; oldDir, newDir if turned
+        double x, y, direction, stepSize, penWidth;
+        Color color;
+        boolean drawing;
+
+        void capture(Turtle turtle) {
+            x = turtle.getX();
+            y = turtle.getY();
+            direction = turtle.getDirection();
+            stepSize = turtle.getStepSize();
+            penWidth = turtle.getPenWidth();
+            color = turtle.getColor();
+            drawing = turtle.isPenDown();
+        }
+
+        void copyFrom(Slot other) {
+            type = other.type;
+            a = other.a;
+            b = other.b;
+            c = other.c;
+            d = other.d;
+            x = other.x;
+            y = other.y;
+            direction = other.direction;
+            stepSize = other.stepSize;
+            penWidth = other.penWidth;
+            color = other.color;
+            drawing = other.drawing;
+        }
+
+        void replayChange(Turtle turtle) {
+            turtle.replayChange(x, y, direction, stepSize, penWidth, color, drawing);
+        }
+    }
+
+    // ------ Mirrors ------
+
+    private class Mirror implements Runnable {
+        final Backpressure backpressure;
+        final Turtle turtle = new Turtle(0, 0);
+        final AtomicLong sequence = new AtomicLong();  // last event taken from the buffer
+        final Thread thread;
+        volatile long replayed;     // last event whose replay the observers have finished
+        volatile boolean sleeping;  // parked until the turtle publishes another event
+        private final Slot[] batch = new Slot[MAX_BATCH_SIZE];
+        private boolean resync;  // the next event is the first after skipping ahead
+
+        Mirror(Backpressure backpressure) {
+            this.backpressure = backpressure;
+            Turtle original = TurtleDispatcher.this.turtle;
+            turtle.replayChange(
+                original.getX(), original.getY(), original.getDirection(), original.getStepSize(),
+                original.getPenWidth(), original.getColor(), original.isPenDown());
+            for(int n = 0; n < MAX_BATCH_SIZE; n++)
+                batch[n] = new Slot();
+            thread = new Thread(this, "Turtle dispatcher " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        public void run() {
+            try {
+                for(int idle = 0; ; ) {
+                    if(closed)
+                        return;
+                    long last = sequence.get();
+                    if(last == LAPPED) {
+                        skipAhead();
+                        continue;
+                    }
+                    long available = cursor.get();
+                    if(available <= last) {
+                        if(idle++ < IDLE_SPINS)
+                            Thread.yield();
+                        else
+                            sleep(last);
+                        continue;
+                    }
+                    idle = 0;
+
+                    // Copy the events out, then check the turtle has not overwritten them meanwhile
+                    int count = (int) Math.min(available - last, MAX_BATCH_SIZE);
+                    for(int n = 0; n < count; n++)
+                        batch[n].copyFrom(slots[(int) (last + 1 + n) & mask]);
+                    if(sequence.compareAndSet(last, last + count)) {
+                        replay(count);
+                        replayed = last + count;
+                    }
+                }
+            } finally {
+                sequence.set(DETACHED);  // never hold up the turtle, even if an observer failed
+            }
+        }
+
+        /**
+         * Parks until the turtle publishes an event after the given one, or the dispatcher closes.
+         * The flag is raised before checking again, so the turtle either sees it or the check
+         * sees the turtle's event.
+         */
+        private void sleep(long last) {
+            sleeping = true;
+            if(cursor.get() <= last && !closed)
+                LockSupport.park(this);
+            sleeping = false;
+        }
+
+        /**
+         * Rejoins the buffer at the turtle's latest event, after being lapped. That event is then
+         * replayed as a jump straight to the turtle's state after it.
+         */
+        private void skipAhead() {
+            long latest = cursor.get();
+            sequence.set(latest - 1);
+            gateStale = true;
+            if(cursor.get() - latest >= slots.length - 1)
+                sequence.set(LAPPED);  // the turtle may have overwritten it before seeing us; try again
+            else
+                resync = true;
+        }
+
+        private void replay(int count) {
+            int start = 0;
+            if(resync) {
+                batch[0].replayChange(turtle);
+                resync = false;
+                start = 1;
+            }
+            for(int n = start; n < count; n++) {
+                Slot event = batch[n];
+                if(event.type == MOVED)
+                    turtle.replayMove(event.a, event.b, event.c, event.d);
+                else if(backpressure == Backpressure.COALESCE && n + 1 < count && batch[n + 1].type != MOVED) {
+                    // Combine everything up to the next move
+                    int end = n + 1;
+                    boolean changed = event.type == CHANGED;
+                    while(end < count && batch[end].type != MOVED)
+                        changed |= batch[end++].type == CHANGED;
+                    Slot last = batch[end - 1];
+                    if(changed)
+                        last.replayChange(turtle);
+                    else
+                        turtle.replayTurn(event.a, last.b);
+                    n = end - 1;
+                } else if(event.type == TURNED)
+                    turtle.replayTurn(event.a, event.b);
+                else
+                    event.replayChange(turtle);
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package edu.macalester.turtle;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * The virtual paper turtles draw on: an antialiased image which turtle segments are stroked into.
+ * Segments can be drawn one at a time, or collected into batches which are drawn together
+ * on the next {@link #flush()}; consecutive batched segments that share a pen color and width
+ * become a single polyline.
+ * <p>
+ * A paper can also be created transparent, for use as a layer that is later composited onto
+ * another paper.
+ * <p>
+ * TurtlePaper does no locking of its own; callers that share it between threads must synchronize.
+ * 
+ * @see TurtleProgram
+ * @see ImageTurtleRenderer
+ */
+public class TurtlePaper {
+    /**
+     * The maximum number of segments held in a batch before it is drawn, even if no flush
+     * has been requested. Keeps the pending path from growing without bound.
+     */
+    private static final int MAX_BATCH_SIZE = 8192;
+    
+    private final BufferedImage image;
+    private final Graphics2D graphics;
+    
+    private final boolean transparent;
+    private final SegmentBatch batch = new SegmentBatch();
+
+    /**
+     * Creates a blank white sheet of paper of the given size in pixels.
+     */
+    public TurtlePaper(int width, int height) {
+        this(width, height, false);
+    }
+
+    /**
+     * Creates a blank sheet of paper of the given size in pixels, which is either white or
+     * fully transparent.
+     */
+    public TurtlePaper(int width, int height, boolean transparent) {
+        this.transparent = transparent;
+        image = new BufferedImage(width, height,
+            transparent ? BufferedImage.TYPE_INT_ARGB_PRE : BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+        enableAntialiasing(graphics);
+        clear();
+    }
+    
+    /**
+     * The image holding everything drawn so far. Batched segments do not appear in it until
+     * the next {@link #flush()}.
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+    
+    /**
+     * The graphics context for drawing directly onto the paper. Call {@link #flush()} first if
+     * drawing order relative to batched segments matters.
+     */
+    public Graphics2D getGraphics() {
+        return graphics;
+    }
+    
+    /**
+     * Clears the paper to white (or transparent), discarding any batched segments.
+     */
+    public void clear() {
+        batch.clear();
+        clear(0, 0, image.getWidth(), image.getHeight());
+    }
+    
+    /**
+     * Clears the given rectangle to white (or transparent). Does not affect batched segments.
+     */
+    public void clear(int x, int y, int width, int height) {
+        if(transparent) {
+            Composite savedComposite = graphics.getComposite();
+            graphics.setComposite(AlphaComposite.Clear);
+            graphics.fillRect(x, y, width, height);
+            graphics.setComposite(savedComposite);
+        } else {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(x, y, width, height);
+        }
+    }
+    
+    /**
+     * Draws a single segment immediately, after any batched segments.
+     */
+    public void drawSegment(Color color, double penWidth, double x0, double y0, double x1, double y1) {
+        flush();
+        strokeSegment(graphics, color, penWidth, x0, y0, x1, y1);
+    }
+    
+    /**
+     * Adds a segment to the current batch. It will be drawn on the next {@link #flush()}.
+     */
+    public void batchSegment(Color color, double penWidth, double x0, double y0, double x1, double y1) {
+        if(batch.size() >= MAX_BATCH_SIZE)
+            flush();
+        batch.add(color, penWidth, x0, y0, x1, y1);
+    }
+    
+    /**
+     * Draws any batched segments onto the paper. Returns true if there were any.
+     */
+    public boolean flush() {
+        if(batch.isEmpty())
+            return false;
+        
+        batch.drawTo(graphics);
+        batch.clear();
+        return true;
+    }
+    
+    // ------ Drawing utilities ------
+    
+    /**
+     * Strokes one turtle segment onto the given graphics context with the given pen.
+     */
+    static void strokeSegment(Graphics2D g, Color color, double penWidth, double x0, double y0, double x1, double y1) {
+        g.setStroke(createStroke(penWidth));
+        g.setPaint(color);
+        g.draw(new Line2D.Double(
+            x0 + 0.5,    // half-pixel offset prevent fuzzy horz / vert lines
+            y0 + 0.5,
+            x1 + 0.5,
+            y1 + 0.5));
+    }
+    
+    /**
+     * Returns a rectangle enclosing every pixel {@link #strokeSegment} could touch when drawing
+     * the given segment.
+     */
+    static Rectangle segmentBounds(double penWidth, double x0, double y0, double x1, double y1) {
+        return strokeBounds(new Rectangle2D.Double(
+            Math.min(x0, x1) + 0.5,
+            Math.min(y0, y1) + 0.5,
+            Math.abs(x1 - x0),
+            Math.abs(y1 - y0)),
+            penWidth);
+    }
+    
+    /**
+     * Returns a rectangle enclosing every pixel stroking a path with the given bounds could touch.
+     */
+    static Rectangle strokeBounds(Rectangle2D pathBounds, double penWidth) {
+        double margin = penWidth / 2 + 1;  // round caps, plus a pixel of antialiasing
+        return new Rectangle2D.Double(
+            pathBounds.getX() - margin,
+            pathBounds.getY() - margin,
+            pathBounds.getWidth()  + margin * 2,
+            pathBounds.getHeight() + margin * 2).getBounds();
+    }
+    
+    static BasicStroke createStroke(double penWidth) {
+        return new BasicStroke(
+            (float) penWidth,
+            BasicStroke.CAP_ROUND,
+            BasicStroke.JOIN_ROUND);
+    }
+
+    static void enableAntialiasing(Graphics2D g) {
+        g.setRenderingHint(
+            RenderingHints.KEY_ANTIALIASING,
+            RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(
+            RenderingHints.KEY_RENDERING,
+            RenderingHints.VALUE_RENDER_QUALITY);
+        g.setRenderingHint(
+            RenderingHints.KEY_STROKE_CONTROL,
+            RenderingHints.VALUE_STROKE_PURE);
+    }
+}
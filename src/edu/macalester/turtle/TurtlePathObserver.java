@@ -0,0 +1,27 @@
+package edu.macalester.turtle;
+
+
+/**
+ * A {@link TurtleObserver} that can take a turtle's drawing a whole path at a time. When a turtle
+ * runs a program of commands with {@link Turtle#execute(byte[], double[], int, int) execute()},
+ * each unbroken series of moves and turns with the pen down is reported to these observers as a
+ * single call to {@link #turtleDrewPath(Turtle, PenStyle, double[], int)}, instead of one call
+ * per move and turn. A series with the pen up, or with no moves, is reported as a single call to
+ * {@link #turtleChanged(Turtle)}.
+ * <p>
+ * Turtles recognize these observers automatically when they are added. Individual calls to
+ * {@link Turtle#forward() forward()} and the like are still reported through the ordinary
+ * {@link TurtleObserver} methods.
+ */
+public interface TurtlePathObserver extends TurtleObserver {
+
+    /**
+     * Called after a turtle has drawn a path through a series of points with the given pen.
+     * The points are packed into the array as x0, y0, x1, y1, and so on; pointCount is the
+     * number of points, at least 2, and the turtle traveled from each to the next. The turtle's
+     * position and direction are already those at the end of the path.
+     * <p>
+     * The array belongs to the turtle, and is reused once this method returns.
+     */
+    void turtleDrewPath(Turtle turtle, PenStyle pen, double[] points, int pointCount);
+}
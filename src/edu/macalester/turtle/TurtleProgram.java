@@ -1,20 +1,36 @@
 package edu.macalester.turtle;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.RenderingHints;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.Line2D;
+import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 
 import acm.program.Program;
@@ -26,22 +42,95 @@ import acm.program.Program;
  * To change the speed of turtle animations, call {@link #setTurtleSpeedFactor(double)}.
  * To draw as fast as possible, set the speed factor to 0.
  * <p>
- * 
+ * Animations are advanced once per frame by the screen update timer. A turtle's thread waits
+ * while its turtle is animating, so several turtles driven by separate threads animate
+ * at the same time. {@link #startTurtleTask(Runnable)} starts such a thread.
+ * <p>
+ * When drawing very large numbers of segments, call {@link #setBatchedDrawing(boolean)
+ * setBatchedDrawing(true)} as well. Segments which complete instantly are then collected into
+ * polylines and stroked onto the paper once per frame instead of one at a time.
+ * {@link #getSegmentCount()} reports the number of segments drawn so far, which you can use to
+ * measure drawing throughput. Turtles driven by {@link Turtle#execute(byte[], double[], int, int)
+ * Turtle.execute()} hand over whole paths at once, which is faster still.
+ * <p>
+ * With many turtles, {@link #setParallelDrawing(boolean) setParallelDrawing(true)} spreads the
+ * work of drawing their batches across all available processors.
+ * <p>
+ * Turtles may be driven from any number of threads. Only the screen update timer draws on the
+ * paper: turtle threads hand it their segments through concurrent queues, and painting never
+ * locks out a turtle thread. A turtle thread that gets more than a frame's worth of drawing
+ * ahead of the screen waits for the next frame.
+ * <p>
+ * Normally the paper is the size of the window, and drawing beyond its edges is lost. Call
+ * {@link #setUnboundedPaper(boolean) setUnboundedPaper(true)} to keep drawing that wanders off
+ * the window, {@link #setViewport(double, double)} to scroll to it, and {@link #writePNG(String)} to
+ * save all of it.
+ * <p>
+ * To zoom in on a drawing without it turning blurry, call {@link #setVectorDisplay(boolean)
+ * setVectorDisplay(true)} and then {@link #setZoom(double)}. The window then redraws the
+ * segments themselves at the zoom level, rather than stretching the paper.
+ * <p>
+ * To draw without a screen, use {@link ImageTurtleRenderer} instead.
  * 
  * @see Turtle
  * @author Paul Cantrell
  */
-public abstract class TurtleProgram extends Program implements TurtleObserver {
+public abstract class TurtleProgram extends Program implements TurtlePathObserver {
     
-    private BufferedImage paper;
-    private Graphics2D paperGraphics;
-    private boolean paintNeeded;
+    private TurtlePaper paper;
+    private TiledPaper tiledPaper;  // replaces paper when unbounded; used only by the update timer
+    private volatile boolean unboundedPaper;
+    private volatile double viewportX, viewportY, zoom = 1;
+    private int originX, originY;   // unbounded paper coordinates at the window's top left, as last displayed
+    private volatile SegmentIndex segmentIndex;  // segments for the vector display, or null if off
+    private VectorView vectorView;  // used only by the update timer
+    private final AtomicBoolean paintNeeded = new AtomicBoolean();  // sprites may have changed
+    private Rectangle dirtyRegion;  // area of the screen to repaint on this frame, or null if none
+    private final Map<Turtle, Rectangle> paintedSpriteBounds = new HashMap<Turtle, Rectangle>();
     
     private Map<Turtle, TurtleSprite> sprites;
-    private Set<AnimationCallback> animationsInProgress;
+    private List<Turtle> turtles;  // in the order they were added
+    private Queue<AnimationCallback> animationsInProgress;  // in the order they started
     private Timer updateTimer;
     private double turtleSpeedFactor;
-    private boolean turtlesVisible = true;
+    private volatile boolean turtlesVisible = true;
+    
+    private final AtomicLong segmentCount = new AtomicLong();
+    private volatile boolean batchedDrawing, parallelDrawing;
+    private ParallelRasterizer parallelRasterizer;  // used only by the update timer
+    private ConcurrentMap<Turtle, TurtleBatch> turtleBatches;
+    private final Queue<TurtleBatch> removedBatches = new ConcurrentLinkedQueue<TurtleBatch>();
+    private final Queue<QueuedSegment> queuedSegments = new ConcurrentLinkedQueue<QueuedSegment>();
+    private final AtomicInteger queuedSegmentCount = new AtomicInteger();
+    private final AtomicLong clearCount = new AtomicLong();  // calls to clear() so far
+    private long paperClearCount;  // calls to clear() the paper reflects; used only by the update timer
+    
+    private volatile CountDownLatch nextFrame = new CountDownLatch(1);
+    private volatile boolean stopped;
+    
+    /**
+     * The maximum number of segments a turtle may batch, or all turtles may queue without
+     * batching, before the turtle's thread waits for the next frame to draw them.
+     */
+    private static final int MAX_TURTLE_BATCH_SIZE = 8192,
+                             MAX_QUEUED_SEGMENTS = 8192;
+    
+    /**
+     * The number of unbounded paper tiles kept in memory before the least recently used are
+     * moved out to a temporary file.
+     */
+    private static final int MAX_RESIDENT_TILES = 256;
+    
+    private ThreadFactory turtleThreadFactory = new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "Turtle task " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+    private final List<Thread> turtleThreads = new CopyOnWriteArrayList<Thread>();
     
     
     // ------ Setup ------
@@ -57,50 +146,70 @@ public abstract class TurtleProgram extends Program implements TurtleObserver {
     }
 
     private void initPaper() {
-        paper = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
-        paperGraphics = paper.createGraphics();
-        paperGraphics.setColor(Color.WHITE);
-        paperGraphics.fillRect(0, 0, paper.getWidth(), paper.getHeight());
-        
-        enableAntialiasing(paperGraphics);
-        paintNeeded = true;
+        paper = new TurtlePaper(getWidth(), getHeight());
+        markWindowDirty();
     }
     
     private void initTurtleDisplay() {
-        sprites = new HashMap<Turtle, TurtleSprite>();
-        animationsInProgress = new HashSet<AnimationCallback>();
+        sprites = new ConcurrentHashMap<Turtle, TurtleSprite>();
+        turtles = new CopyOnWriteArrayList<Turtle>();
+        turtleBatches = new ConcurrentHashMap<Turtle, TurtleBatch>();
+        animationsInProgress = new ConcurrentLinkedQueue<AnimationCallback>();
     }
 
     private void startUpdateTimer() {
         updateTimer = new Timer(1, new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                synchronized(TurtleProgram.this) {
-                    if(paintNeeded)
-                        repaint(1);
-                    paintNeeded = false;
+                updatePaper();
+                catchUpToClear(clearCount.get());
+                drawQueuedSegments();
+                advanceAnimations();
+                updateVectorView();
+                if(paintNeeded.getAndSet(false))
+                    updateSpriteBounds();
+                if(dirtyRegion != null) {
+                    Rectangle window = getPaperToWindow().createTransformedShape(dirtyRegion).getBounds();
+                    window.grow(1, 1);  // in case of rounding when zoomed
+                    repaint(1, window.x, window.y, window.width, window.height);
+                    dirtyRegion = null;
                 }
+                
+                CountDownLatch frame = nextFrame;  // release turtle threads waiting for this frame
+                nextFrame = new CountDownLatch(1);
+                frame.countDown();
             }
         });
         updateTimer.setDelay(16);
         updateTimer.start();
     }
     
+    /**
+     * Stops the screen update timer when the applet is torn down, and releases any turtle
+     * threads waiting for animations.
+     */
     @Override
-    protected void finalize() throws Throwable {
-        updateTimer.stop();
-        super.finalize();
-    }
-
-    private void enableAntialiasing(Graphics2D g) {
-        g.setRenderingHint(
-            RenderingHints.KEY_ANTIALIASING,
-            RenderingHints.VALUE_ANTIALIAS_ON);
-        g.setRenderingHint(
-            RenderingHints.KEY_RENDERING,
-            RenderingHints.VALUE_RENDER_QUALITY);
-        g.setRenderingHint(
-            RenderingHints.KEY_STROKE_CONTROL,
-            RenderingHints.VALUE_STROKE_PURE);
+    public void destroy() {
+        if(updateTimer != null)
+            updateTimer.stop();
+        stopped = true;
+        nextFrame.countDown();
+        for(AnimationCallback callback : animationsInProgress)
+            callback.finish();
+        animationsInProgress.clear();
+        
+        parallelDrawing = false;
+        SwingUtilities.invokeLater(new Runnable() {  // after any timer event already in progress
+            public void run() {
+                updateRasterizer();
+                if(tiledPaper != null)
+                    tiledPaper.close();
+                tiledPaper = null;
+                if(vectorView != null)
+                    vectorView.shutdown();
+                vectorView = null;
+            }
+        });
+        super.destroy();
     }
 
 
@@ -110,30 +219,36 @@ public abstract class TurtleProgram extends Program implements TurtleObserver {
      * Places the given turtle on the virtual paper. Subsequent turtle actions will draw to 
      * this applet's window.
      */
-    public synchronized void add(Turtle turtle) {
+    public void add(Turtle turtle) {
         sprites.put(turtle, new TurtleSprite(turtle));
+        turtles.add(turtle);
         turtle.addObserver(this);
-        paintNeeded = true;
+        paintNeeded.set(true);
     }
     
     /**
      * Removes the given turtle from the virtual paper.
      */
-    public synchronized void remove(Turtle turtle) {
-        sprites.remove(turtle);
+    public void remove(Turtle turtle) {
         turtle.removeObserver(this);
-        paintNeeded = true;
+        TurtleBatch batch = turtleBatches.remove(turtle);
+        if(batch != null)
+            removedBatches.add(batch);  // still draw what the turtle has already batched
+        turtles.remove(turtle);
+        sprites.remove(turtle);
+        paintNeeded.set(true);
     }
     
     /**
-     * Clears the paper to white. Does not remove any turtles.
+     * Clears the paper to white on the next frame. Segments drawn before this call and not yet on
+     * the paper are discarded, and those drawn after it appear on the cleared paper. Does not
+     * remove any turtles.
      */
-    public synchronized void clear() {
-        AffineTransform savedXform = paperGraphics.getTransform();
-        paperGraphics.setTransform(AffineTransform.getTranslateInstance(0, 0));
-        paperGraphics.setColor(Color.WHITE);
-        paperGraphics.fillRect(0, 0, paper.getWidth(), paper.getHeight());
-        paperGraphics.setTransform(savedXform);
+    public void clear() {
+        SegmentIndex index = segmentIndex;
+        if(index != null)
+            index.clear();
+        clearCount.incrementAndGet();
     }
     
     /**
@@ -144,12 +259,211 @@ public abstract class TurtleProgram extends Program implements TurtleObserver {
         turtleSpeedFactor = factor;
     }
     
+    /**
+     * Enables or disables batched drawing. When enabled, segments which complete without
+     * animation (typically because the speed factor is 0) are not stroked individually. Instead,
+     * consecutive segments that share a pen color and width are gathered into a single polyline,
+     * which is drawn to the paper on the next frame. Each turtle's segments are batched
+     * separately, so turtles never wait for one another. The default is false.
+     * <p>
+     * Because a polyline is stroked as a single shape, translucent colors do not darken where
+     * consecutive segments of a batch overlap, so the result can look slightly different from
+     * unbatched drawing. Where translucent lines from different turtles overlap within a single
+     * frame, the result is as if the turtles had drawn one after another.
+     */
+    public void setBatchedDrawing(boolean batchedDrawing) {
+        this.batchedDrawing = batchedDrawing;
+    }
+    
+    public boolean isBatchedDrawing() {
+        return batchedDrawing;
+    }
+    
+    /**
+     * Enables or disables parallel drawing. Like batched drawing, this applies to segments which
+     * complete without animation, but each turtle's segments are batched separately. On each frame,
+     * the turtles are split into groups in the order they were added, each group is drawn into its
+     * own layer on a separate processor, and the layers are composited onto the paper in order.
+     * The default is false.
+     * <p>
+     * The result matches drawing each turtle's segments for the frame one turtle after another.
+     * This differs from unparallel drawing only where translucent lines from different turtles
+     * overlap within a single frame.
+     */
+    public void setParallelDrawing(boolean parallelDrawing) {
+        this.parallelDrawing = parallelDrawing;
+    }
+    
+    public boolean isParallelDrawing() {
+        return parallelDrawing;
+    }
+    
+    /**
+     * Enables or disables unbounded paper, starting on the next frame. Unbounded paper extends
+     * without limit in every direction, so drawing that wanders off the window is kept, and the
+     * window shows the part of the paper at the {@link #setViewport(double, double) viewport}. Memory is
+     * used only for the parts of the paper that have been drawn on, and the least recently used
+     * parts are moved out to a temporary file when there are many. The default is false.
+     * <p>
+     * The drawing in the window carries over when switching in either direction. Parallel
+     * drawing has no effect on unbounded paper.
+     */
+    public void setUnboundedPaper(boolean unboundedPaper) {
+        this.unboundedPaper = unboundedPaper;
+    }
+    
+    public boolean isUnboundedPaper() {
+        return unboundedPaper;
+    }
+    
+    /**
+     * Scrolls unbounded paper or the vector display so that the given point on the paper is at
+     * the top left corner of the window. Turtle coordinates are paper coordinates, so the initial
+     * viewport of (0, 0) shows the same area as ordinary paper. Unbounded paper scrolls by whole
+     * pixels, rounding down. Has no effect on ordinary paper without the vector display.
+     */
+    public void setViewport(double x, double y) {
+        viewportX = x;
+        viewportY = y;
+    }
+    
+    public double getViewportX() {
+        return viewportX;
+    }
+    
+    public double getViewportY() {
+        return viewportY;
+    }
+    
+    /**
+     * Enables or disables the vector display, starting on the next frame. The vector display
+     * remembers every segment drawn while it is enabled, and draws the window from those segments
+     * instead of from the paper, so the drawing stays sharp at any {@link #setZoom(double) zoom}.
+     * Segments drawn before it was enabled, and anything drawn on the paper some other way, are
+     * not shown. The default is false.
+     * <p>
+     * The window is redrawn in tiles on background threads, so zooming and scrolling stay smooth
+     * even for drawings of millions of segments; until the new tiles are ready, the old ones are
+     * shown stretched in their place. Detail too small to see at the current zoom is left out.
+     * Drawing continues on the paper as usual, so {@link #writePNG(String)} is unaffected, but
+     * each segment costs some extra memory for as long as the vector display is on.
+     * 
+     * @see VectorRenderer
+     */
+    public void setVectorDisplay(boolean vectorDisplay) {
+        if(vectorDisplay != (segmentIndex != null))
+            segmentIndex = vectorDisplay ? new SegmentIndex() : null;
+    }
+    
+    public boolean isVectorDisplay() {
+        return segmentIndex != null;
+    }
+    
+    /**
+     * Sets the number of screen pixels per unit of paper for the vector display. Values above 1
+     * zoom in. The point at the {@link #setViewport(double, double) viewport} stays at the top
+     * left corner of the window. Has no effect unless the vector display is enabled. The default is 1.
+     */
+    public void setZoom(double zoom) {
+        if(!(zoom > 0) || Double.isInfinite(zoom))
+            throw new IllegalArgumentException("zoom must be positive: " + zoom);
+        this.zoom = zoom;
+    }
+    
+    public double getZoom() {
+        return zoom;
+    }
+    
+    /**
+     * Writes everything drawn so far to the given file in PNG format, after waiting for any
+     * drawing not yet on the paper. For unbounded paper, this is all the drawing, wherever it is;
+     * otherwise it is what fits in the window.
+     */
+    public void writePNG(final String filename) {
+        Runnable write = new Runnable() {
+            public void run() {
+                drawQueuedSegments();
+                if(tiledPaper != null)
+                    tiledPaper.writePNG(filename);
+                else
+                    try {
+                        ImageIO.write(paper.getImage(), "png", new File(filename));
+                    } catch (IOException e) {
+                        // Throw as runtime exception so students don't have to deal with catching it
+                        throw new RuntimeException(e);
+                    }
+            }
+        };
+        
+        if(SwingUtilities.isEventDispatchThread()) {
+            write.run();
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(write);  // the paper belongs to the update timer's thread
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+    
+    /**
+     * Returns the total number of segments turtles on this paper have traveled so far,
+     * whether or not the pen was down.
+     */
+    public long getSegmentCount() {
+        return segmentCount.get();
+    }
+    
+    /**
+     * Starts the given task, typically one that drives a turtle, on a new thread. Because a
+     * turtle's thread waits while the turtle animates, giving each turtle its own task lets
+     * many turtles animate at once.
+     * <p>
+     * Threads come from the factory set with {@link #setTurtleThreadFactory(ThreadFactory)}.
+     * 
+     * @see #awaitTurtleTasks()
+     */
+    public Thread startTurtleTask(Runnable task) {
+        Thread thread = turtleThreadFactory.newThread(task);
+        turtleThreads.add(thread);
+        thread.start();
+        return thread;
+    }
+    
+    /**
+     * Waits for all tasks started with {@link #startTurtleTask(Runnable)} to finish.
+     */
+    public void awaitTurtleTasks() {
+        for(Thread thread : turtleThreads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            turtleThreads.remove(thread);
+        }
+    }
+    
+    /**
+     * Sets the source of threads for {@link #startTurtleTask(Runnable)}. By default each task
+     * gets a new daemon thread. Turtle threads spend most of their time waiting for animations,
+     * so on Java 21 and later, {@code Thread.ofVirtual().factory()} lets thousands of turtles
+     * animate at once using only a few platform threads.
+     */
+    public void setTurtleThreadFactory(ThreadFactory factory) {
+        turtleThreadFactory = factory;
+    }
+    
     /**
      * Resizes the sprites of all turtles currently on the canvas. Does not affect drawing.
      */
     public void setTurtleSize(double size) {
         for(TurtleSprite sprite : sprites.values())
             sprite.setTurtleSize(size * 0.5);
+        paintNeeded.set(true);
     }
     
     /**
@@ -157,6 +471,7 @@ public abstract class TurtleProgram extends Program implements TurtleObserver {
      */
     public void setTurtlesVisible(boolean turtlesVisible) {
         this.turtlesVisible = turtlesVisible;
+        paintNeeded.set(true);
     }
 
 
@@ -164,29 +479,72 @@ public abstract class TurtleProgram extends Program implements TurtleObserver {
 
     @Override
     public void turtleMoved(final Turtle turtle, final double x0, final double y0, final double x1, final double y1) {
-        animate(turtle, Math.pow(Math.hypot(x1-x0, y1-y0) / 50, 0.7), new AnimationCallback() {
-            @Override
-            public void animate(TurtleSprite sprite) {
-                sprite.setX(animateParam(x0, x1));
-                sprite.setY(animateParam(y0, y1));
-            }
+        segmentCount.incrementAndGet();
+        
+        double animTime = Math.pow(Math.hypot(x1-x0, y1-y0) / 50, 0.7);
+        if(!isAnimated(animTime))
+            drawInstantly(turtle, x0, y0, x1, y1);
+        else
+            animate(turtle, animTime, new AnimationCallback() {
+                @Override
+                public void animate(TurtleSprite sprite) {
+                    sprite.setX(animateParam(x0, x1));
+                    sprite.setY(animateParam(y0, y1));
+                }
 
-            @Override
-            public void paint(Graphics2D g) {
-                if(turtle.isPenDown()) {
-                    g.setStroke(new BasicStroke(
-                        (float) turtle.getPenWidth(),
-                        BasicStroke.CAP_ROUND,
-                        BasicStroke.JOIN_ROUND));
-                    g.setPaint(turtle.getColor());
-                    g.draw(new Line2D.Double(
-                        x0 + 0.5,    // half-pixel offset prevent fuzzy horz / vert lines
-                        y0 + 0.5,
-                        animateParam(x0, x1) + 0.5,
-                        animateParam(y0, y1) + 0.5));
+                @Override
+                public void paint(Graphics2D g) {
+                    if(turtle.isPenDown())
+                        TurtlePaper.strokeSegment(g, turtle.getColor(), turtle.getPenWidth(),
+                            x0, y0, animateParam(x0, x1), animateParam(y0, y1));
                 }
-            }
-        });
+                
+                @Override
+                public void paint(TiledPaper paper) {
+                    if(turtle.isPenDown())
+                        paper.drawSegment(turtle.getColor(), turtle.getPenWidth(),
+                            x0, y0, animateParam(x0, x1), animateParam(y0, y1));
+                }
+            
+                @Override
+                public Rectangle getPaintBounds() {
+                    return TurtlePaper.segmentBounds(turtle.getPenWidth(), x0, y0, x1, y1);
+                }
+            });
+        
+        SegmentIndex index = segmentIndex;
+        if(index != null)
+            index.turtleMoved(turtle, x0, y0, x1, y1);  // after any animation, so it appears once drawn
+    }
+
+    /**
+     * Draws the path instantly if the speed factor is 0, and otherwise animates each segment in
+     * turn. The turtle's sprite does not turn between the segments.
+     */
+    @Override
+    public void turtleDrewPath(Turtle turtle, PenStyle pen, double[] points, int pointCount) {
+        if(turtleSpeedFactor != 0) {
+            for(int n = 1; n < pointCount; n++)
+                turtleMoved(turtle, points[n * 2 - 2], points[n * 2 - 1], points[n * 2], points[n * 2 + 1]);
+            turtleChanged(turtle);
+            return;
+        }
+        
+        segmentCount.addAndGet(pointCount - 1);
+        boolean full;
+        if(batchedDrawing || parallelDrawing)
+            full = getTurtleBatch(turtle).addPath(clearCount.get(), pen.getColor(), pen.getWidth(), points, pointCount) >= MAX_TURTLE_BATCH_SIZE;
+        else {
+            queuedSegments.add(new QueuedSegment(clearCount.get(), pen.getColor(), pen.getWidth(), Arrays.copyOf(points, pointCount * 2)));
+            full = queuedSegmentCount.addAndGet(pointCount - 1) >= MAX_QUEUED_SEGMENTS;
+        }
+        
+        SegmentIndex index = segmentIndex;
+        if(index != null)
+            index.turtleDrewPath(turtle, pen, points, pointCount);
+        if(full)
+            awaitNextFrame();
+        turtleChanged(turtle);
     }
 
     @Override
@@ -200,39 +558,464 @@ public abstract class TurtleProgram extends Program implements TurtleObserver {
     }
 
     @Override
-    public synchronized void turtleChanged(Turtle turtle) {
-        sprites.get(turtle).sync();
-        paintNeeded = true;
+    public void turtleChanged(Turtle turtle) {
+        // Setters often come in runs between moves; only repaint for those the sprite shows
+        TurtleSprite sprite = sprites.get(turtle);
+        if(sprite != null && sprite.sync())
+            paintNeeded.set(true);
+    }
+    
+    // ------ Queued drawing ------
+    
+    /**
+     * Hands a segment that needs no animation to the update timer, which draws it on the
+     * next frame.
+     */
+    private void drawInstantly(Turtle turtle, double x0, double y0, double x1, double y1) {
+        if(turtle.isPenDown()) {
+            boolean full;
+            if(batchedDrawing || parallelDrawing)
+                full = getTurtleBatch(turtle).add(clearCount.get(), turtle.getColor(), turtle.getPenWidth(), x0, y0, x1, y1) >= MAX_TURTLE_BATCH_SIZE;
+            else {
+                queuedSegments.add(new QueuedSegment(clearCount.get(), turtle.getColor(), turtle.getPenWidth(), new double[] { x0, y0, x1, y1 }));
+                full = queuedSegmentCount.incrementAndGet() >= MAX_QUEUED_SEGMENTS;
+            }
+            if(full)
+                awaitNextFrame();
+        }
+        
+        turtleChanged(turtle);
+    }
+    
+    private TurtleBatch getTurtleBatch(Turtle turtle) {
+        TurtleBatch batch = turtleBatches.get(turtle);
+        if(batch == null) {
+            TurtleBatch newBatch = new TurtleBatch();
+            batch = turtleBatches.putIfAbsent(turtle, newBatch);
+            if(batch == null)
+                batch = newBatch;
+        }
+        return batch;
+    }
+    
+    /**
+     * Blocks the calling thread until the update timer has drawn the next frame. Does not wait
+     * if called from the event dispatch thread, which would never see the frame.
+     */
+    private void awaitNextFrame() {
+        if(stopped || SwingUtilities.isEventDispatchThread())
+            return;
+        try {
+            nextFrame.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Draws all queued and batched segments onto the paper. Runs on the update timer.
+     */
+    private void drawQueuedSegments() {
+        Graphics2D g = paper.getGraphics();
+        QueuedSegment segment;
+        while((segment = queuedSegments.poll()) != null) {
+            double[] points = segment.points;
+            queuedSegmentCount.addAndGet(-(points.length / 2 - 1));
+            if(!catchUpToClear(segment.clearCount))
+                continue;  // cleared away before it was drawn
+            for(int n = 2; n < points.length; n += 2) {
+                double x0 = points[n - 2], y0 = points[n - 1], x1 = points[n], y1 = points[n + 1];
+                if(tiledPaper != null)
+                    tiledPaper.drawSegment(segment.color, segment.penWidth, x0, y0, x1, y1);
+                else
+                    TurtlePaper.strokeSegment(g, segment.color, segment.penWidth, x0, y0, x1, y1);
+                markDirty(TurtlePaper.segmentBounds(segment.penWidth, x0, y0, x1, y1));
+            }
+        }
+        
+        List<TurtleBatch> taken = new ArrayList<TurtleBatch>();
+        TurtleBatch removed;
+        while((removed = removedBatches.poll()) != null)
+            take(taken, removed);
+        for(Turtle turtle : turtles) {
+            TurtleBatch batch = turtleBatches.get(turtle);
+            if(batch != null)
+                take(taken, batch);
+        }
+        
+        // Clear first if any batch was started after a clear, then drop those started before it
+        for(TurtleBatch batch : taken)
+            catchUpToClear(batch.getDrawingClearCount());
+        List<SegmentBatch> pending = new ArrayList<SegmentBatch>();
+        for(TurtleBatch batch : taken)
+            if(batch.getDrawingClearCount() == paperClearCount)
+                pending.add(batch.getDrawing());
+            else
+                batch.getDrawing().clear();
+        
+        updateRasterizer();
+        if(pending.isEmpty())
+            return;
+        if(parallelRasterizer != null) {
+            for(SegmentBatch batch : pending)
+                markDirty(batch.getBounds());
+            parallelRasterizer.draw(pending, paper);
+        } else
+            for(SegmentBatch batch : pending) {
+                Rectangle bounds = batch.getBounds();
+                markDirty(bounds);
+                if(tiledPaper != null)
+                    batch.drawTo(tiledPaper);
+                else
+                    batch.drawTo(g);
+                batch.clear();
+            }
+    }
+    
+    private static void take(List<TurtleBatch> taken, TurtleBatch batch) {
+        if(!batch.take().isEmpty())
+            taken.add(batch);
+    }
+    
+    /**
+     * Clears the paper if it does not yet reflect the given number of calls to {@link #clear()}.
+     * Returns false if the paper has already been cleared more times than that, so anything
+     * drawn after the given number of calls is out of date. Runs on the update timer.
+     */
+    private boolean catchUpToClear(long clearCount) {
+        if(clearCount < paperClearCount)
+            return false;
+        if(clearCount > paperClearCount) {
+            if(tiledPaper != null)
+                tiledPaper.clear();
+            else
+                paper.clear();
+            if(vectorView != null)
+                vectorView.clear();
+            markWindowDirty();
+            paperClearCount = clearCount;
+        }
+        return true;
+    }
+    
+    /**
+     * Starts or stops the parallel rasterizer to match the parallel drawing setting.
+     * Runs on the update timer.
+     */
+    private void updateRasterizer() {
+        boolean parallelDrawing = this.parallelDrawing && tiledPaper == null;
+        if(parallelDrawing && parallelRasterizer == null)
+            parallelRasterizer = new ParallelRasterizer(
+                paper.getImage().getWidth(),
+                paper.getImage().getHeight(),
+                Runtime.getRuntime().availableProcessors());
+        else if(!parallelDrawing && parallelRasterizer != null) {
+            parallelRasterizer.shutdown();
+            parallelRasterizer = null;
+        }
+    }
+    
+    /**
+     * One turtle's batched segments. The turtle's thread adds to one batch while the update
+     * timer draws the other, so neither waits for the other to finish.
+     */
+    private static class TurtleBatch {
+        private SegmentBatch filling = new SegmentBatch(), drawing = new SegmentBatch();
+        private long fillingClearCount, drawingClearCount;  // calls to clear() before each batch was started
+        
+        /**
+         * Adds a segment drawn after the given number of calls to {@link TurtleProgram#clear()},
+         * and returns the number of segments now waiting to be drawn.
+         */
+        public synchronized int add(long clearCount, Color color, double penWidth, double x0, double y0, double x1, double y1) {
+            startAfterClear(clearCount);
+            filling.add(color, penWidth, x0, y0, x1, y1);
+            return filling.size();
+        }
+        
+        /**
+         * Adds a path of points packed as x, y pairs, drawn after the given number of calls to
+         * {@link TurtleProgram#clear()}, and returns the number of segments now waiting to be drawn.
+         */
+        public synchronized int addPath(long clearCount, Color color, double penWidth, double[] points, int pointCount) {
+            startAfterClear(clearCount);
+            for(int n = 1; n < pointCount; n++)
+                filling.add(color, penWidth, points[n * 2 - 2], points[n * 2 - 1], points[n * 2], points[n * 2 + 1]);
+            return filling.size();
+        }
+        
+        /**
+         * Returns the segments waiting to be drawn, and starts collecting new ones in the batch
+         * returned by the previous call. The caller must clear the returned batch before
+         * calling this again.
+         */
+        public synchronized SegmentBatch take() {
+            SegmentBatch full = filling;
+            filling = drawing;
+            drawing = full;
+            drawingClearCount = fillingClearCount;
+            return full;
+        }
+        
+        /**
+         * The batch returned by the last call to {@link #take()}.
+         */
+        public synchronized SegmentBatch getDrawing() {
+            return drawing;
+        }
+        
+        /**
+         * The number of calls to {@link TurtleProgram#clear()} before the batch returned by the
+         * last call to {@link #take()} was started.
+         */
+        public synchronized long getDrawingClearCount() {
+            return drawingClearCount;
+        }
+        
+        /**
+         * Discards the segments waiting to be drawn if the paper has been cleared since they were.
+         */
+        private void startAfterClear(long clearCount) {
+            if(clearCount > fillingClearCount) {
+                filling.clear();
+                fillingClearCount = clearCount;
+            }
+        }
+    }
+    
+    /**
+     * One or more connected segments, drawn one at a time.
+     */
+    private static class QueuedSegment {
+        final long clearCount;  // calls to clear() before the segment was drawn
+        final Color color;
+        final double penWidth;
+        final double[] points;  // x, y pairs
+        
+        QueuedSegment(long clearCount, Color color, double penWidth, double[] points) {
+            this.clearCount = clearCount;
+            this.color = color;
+            this.penWidth = penWidth;
+            this.points = points;
+        }
     }
     
     @Override
     public void paint(Graphics g) {
         Graphics2D g2 = (Graphics2D) g;
-        enableAntialiasing(g2);
+        TurtlePaper.enableAntialiasing(g2);
         
-        if(paper != null)  // paint() may be called before startHook()
-            synchronized(this) {
-                g2.drawImage(paper, 0, 0, null);
-            
-                for(AnimationCallback callback : animationsInProgress)
-                    callback.paint(g2);
-            
-                if(turtlesVisible)
-                    for(TurtleSprite sprite: sprites.values())
-                        sprite.draw(g2);
+        if(paper == null)  // paint() may be called before startHook()
+            return;
+        
+        // The paper and animations are only changed by the update timer, which runs on this
+        // same thread; the turtle list is a snapshot, and each sprite guards its own state.
+        Rectangle clip = g2.getClipBounds();
+        if(clip == null)
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        AffineTransform windowTransform = g2.getTransform();
+        if(vectorView != null) {
+            vectorView.paint(g2, clip);
+            clip = toPaper(clip);
+            g2.transform(getPaperToWindow());  // everything below is in paper coordinates
+        } else if(tiledPaper != null) {
+            clip = toPaper(clip);
+            g2.transform(getPaperToWindow());
+            tiledPaper.drawTo(g2, clip);
+        } else {
+            BufferedImage image = paper.getImage();
+            Rectangle area = clip.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+            if(!area.isEmpty())
+                g2.drawImage(image,
+                    area.x, area.y, area.x + area.width, area.y + area.height,
+                    area.x, area.y, area.x + area.width, area.y + area.height,
+                    null);
+        }
+        
+        for(AnimationCallback callback : animationsInProgress)
+            callback.paint(g2);
+        
+        if(turtlesVisible)
+            for(Turtle turtle : turtles) {
+                TurtleSprite sprite = sprites.get(turtle);
+                if(sprite != null && sprite.getBounds().intersects(clip))
+                    sprite.draw(g2);
+            }
+        
+        g2.setTransform(windowTransform);
+    }
+    
+    
+    // ------ Unbounded paper ------
+    
+    /**
+     * Switches between ordinary and unbounded paper, and scrolls to the viewport, to match the
+     * current settings. The drawing in the window carries over from one paper to the other.
+     * Runs on the update timer.
+     */
+    private void updatePaper() {
+        if(unboundedPaper && tiledPaper == null) {
+            File spillFile;
+            try {
+                spillFile = File.createTempFile("turtle-paper", ".tiles");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            tiledPaper = new TiledPaper(spillFile.getPath(), MAX_RESIDENT_TILES);
+            originX = (int) Math.floor(viewportX);
+            originY = (int) Math.floor(viewportY);
+            tiledPaper.drawImage(paper.getImage(), originX, originY);
+            markWindowDirty();
+        } else if(!unboundedPaper && tiledPaper != null) {
+            Graphics2D g = paper.getGraphics();
+            g.translate(-originX, -originY);
+            tiledPaper.drawTo(g, getWindowArea());
+            g.translate(originX, originY);
+            tiledPaper.close();
+            tiledPaper = null;
+            originX = originY = 0;
+            markWindowDirty();
+        }
+        
+        int x = (int) Math.floor(viewportX), y = (int) Math.floor(viewportY);
+        if(tiledPaper != null && (originX != x || originY != y)) {
+            originX = x;
+            originY = y;
+            markWindowDirty();
+        }
+    }
+    
+    /**
+     * The area of the paper currently shown in the window, in paper coordinates.
+     */
+    private Rectangle getWindowArea() {
+        return new Rectangle(originX, originY, paper.getImage().getWidth(), paper.getImage().getHeight());
+    }
+    
+    
+    // ------ Vector display ------
+    
+    /**
+     * Starts or stops the vector view to match the vector display setting, brings it up to date
+     * with the viewport and zoom, and adds any newly drawn segments. Runs on the update timer.
+     */
+    private void updateVectorView() {
+        SegmentIndex index = segmentIndex;
+        if(vectorView != null && vectorView.getIndex() != index) {
+            vectorView.shutdown();
+            vectorView = null;
+            markWindowDirty();
+        }
+        if(index == null)
+            return;
+        
+        if(vectorView == null)
+            vectorView = new VectorView(index, Runtime.getRuntime().availableProcessors());
+        boolean moved = vectorView.setView(viewportX, viewportY, zoom, getWidth(), getHeight());
+        if(vectorView.update() || moved)
+            markWindowDirty();
+    }
+    
+    /**
+     * The transform from paper coordinates to window coordinates for the current display.
+     * Runs on the update timer.
+     */
+    private AffineTransform getPaperToWindow() {
+        if(vectorView != null)
+            return vectorView.getPaperToWindow();
+        if(tiledPaper != null)
+            return AffineTransform.getTranslateInstance(-originX, -originY);
+        return new AffineTransform();
+    }
+    
+    /**
+     * Returns the area of the paper shown in the given area of the window. Runs on the update timer.
+     */
+    private Rectangle toPaper(Rectangle window) {
+        try {
+            return getPaperToWindow().createInverse().createTransformedShape(window).getBounds();
+        } catch (NoninvertibleTransformException e) {
+            throw new IllegalStateException(e);  // cannot happen, as the zoom is always positive
+        }
+    }
+    
+    
+    // ------ Dirty regions ------
+    
+    /**
+     * Adds the given area to the region repainted on this frame. Does nothing if the area is null.
+     * Runs on the update timer.
+     */
+    private void markDirty(Rectangle area) {
+        if(area == null)
+            return;
+        if(dirtyRegion == null)
+            dirtyRegion = new Rectangle(area);
+        else
+            dirtyRegion.add(area);
+    }
+    
+    /**
+     * Marks the whole window for repainting. Runs on the update timer.
+     */
+    private void markWindowDirty() {
+        markDirty(toPaper(new Rectangle(0, 0, getWidth(), getHeight())));
+    }
+    
+    /**
+     * Marks both the old and new positions of every sprite that has moved, appeared, disappeared,
+     * or changed its look since it was last painted. Runs on the update timer.
+     */
+    private void updateSpriteBounds() {
+        for(Iterator<Map.Entry<Turtle, Rectangle>> iter = paintedSpriteBounds.entrySet().iterator(); iter.hasNext(); ) {
+            Map.Entry<Turtle, Rectangle> entry = iter.next();
+            if(!sprites.containsKey(entry.getKey())) {
+                markDirty(entry.getValue());
+                iter.remove();
+            }
+        }
+        
+        for(Turtle turtle : turtles) {
+            TurtleSprite sprite = sprites.get(turtle);
+            if(sprite == null)
+                continue;
+            Rectangle bounds = turtlesVisible ? sprite.getBounds() : null;
+            Rectangle oldBounds = paintedSpriteBounds.put(turtle, bounds);
+            boolean restyled = sprite.takeRepaintNeeded();  // e.g. a new pen color in the same place
+            if(bounds == null ? oldBounds != null : (!bounds.equals(oldBounds) || restyled)) {
+                markDirty(oldBounds);
+                markDirty(bounds);
             }
+        }
     }
     
     
     // ------ Turtle animation ------
     
     private abstract class AnimationCallback {
+        private Turtle turtle;
+        private long startNanos;
+        private double durationNanos;
         private double t;
+        private final CountDownLatch finished = new CountDownLatch(1);
         
         public abstract void animate(TurtleSprite sprite);
         
         public void paint(Graphics2D g) { }
         
+        /**
+         * Draws the same thing as {@link #paint(Graphics2D)} onto unbounded paper.
+         */
+        public void paint(TiledPaper paper) { }
+        
+        /**
+         * Returns a rectangle enclosing everything {@link #paint(Graphics2D)} could draw,
+         * or null if it draws nothing.
+         */
+        public Rectangle getPaintBounds() {
+            return null;
+        }
+        
         public void setTime(double t) {
             this.t = t;
         }
@@ -240,43 +1023,92 @@ public abstract class TurtleProgram extends Program implements TurtleObserver {
         protected double animateParam(double start, double end) {
             return start + (end - start) * t;
         }
+        
+        /**
+         * Releases the turtle thread waiting for this animation.
+         */
+        public void finish() {
+            finished.countDown();
+        }
+        
+        /**
+         * Waits for the animation to finish. Uses a latch rather than a monitor, so that a
+         * virtual thread waiting here does not tie up its carrier thread.
+         */
+        public void awaitFinish() throws InterruptedException {
+            finished.await();
+        }
+    }
+    
+    /**
+     * Returns true if a change that takes the given time at normal speed should be animated.
+     * Changes made on the event dispatch thread never are: the update timer that would advance
+     * the animation runs on that same thread, so waiting for it there would never end.
+     */
+    private boolean isAnimated(double animTime) {
+        return animTime * turtleSpeedFactor >= 0.001 && !SwingUtilities.isEventDispatchThread();
     }
     
+    /**
+     * Animates the turtle, then draws the callback's final state to the paper. Blocks the calling
+     * thread until the animation is done; the animation itself is advanced by the update timer.
+     * Animations too short to see, and those started on the event dispatch thread, are skipped,
+     * so callers must draw anything those leave on the paper themselves (see {@link #drawInstantly}).
+     */
     private void animate(Turtle turtle, double animTime, AnimationCallback callback) {
-        synchronized (this) {
-            animationsInProgress.add(callback);
-        }
-        
-        animTime *= turtleSpeedFactor;
-        long animStart = System.currentTimeMillis();
-        if(animTime >= 0.001) {
-            while(true) {
-                long now = System.currentTimeMillis();
-                double t = (now - animStart) / animTime;
-                if(t >= 1)
-                    break;
-                
-                synchronized(this) {
-                    callback.setTime(t);
-                    callback.animate(sprites.get(turtle));
-                    paintNeeded = true;
-                }
-                
-                try {
-                    long delay = 16 - (System.currentTimeMillis() - now);
-                    if(delay > 0)
-                        Thread.sleep(delay);
-                } catch (InterruptedException e) {
-                    return; // cancel animation
-                }
-            }
+        if(!isAnimated(animTime) || stopped) {
+            turtleChanged(turtle);
+            return;
         }
         
-        synchronized(this) {
-            animationsInProgress.remove(callback);
-            callback.setTime(1);
-            callback.paint(paperGraphics);
+        callback.turtle = turtle;
+        callback.durationNanos = animTime * turtleSpeedFactor * 1e6;
+        callback.startNanos = System.nanoTime();
+        animationsInProgress.add(callback);  // safely publishes the fields above to the update timer
+        
+        try {
+            callback.awaitFinish();
+        } catch (InterruptedException e) {
+            animationsInProgress.remove(callback);  // cancel animation
+        }
+    }
+    
+    /**
+     * Moves every animation in progress forward to the current time, finishing those that are
+     * done. Runs on the update timer.
+     */
+    private void advanceAnimations() {
+        if(animationsInProgress.isEmpty())
+            return;
+        
+        long now = System.nanoTime();
+        for(Iterator<AnimationCallback> iter = animationsInProgress.iterator(); iter.hasNext(); ) {
+            AnimationCallback callback = iter.next();
+            markDirty(callback.getPaintBounds());
+            double t = (now - callback.startNanos) / callback.durationNanos;
+            TurtleSprite sprite = sprites.get(callback.turtle);
+            if(t >= 1 || sprite == null) {
+                iter.remove();
+                finishAnimation(callback);
+                if(sprite != null)
+                    sprite.sync();  // animation done; get everything set to final state
+                callback.finish();
+            } else {
+                callback.setTime(t);
+                callback.animate(sprite);
+            }
         }
-        turtleChanged(turtle); // animation done; get everything set to final state
+        paintNeeded.set(true);
+    }
+    
+    /**
+     * Draws the animation's final state to the paper. Runs on the update timer.
+     */
+    private void finishAnimation(AnimationCallback callback) {
+        callback.setTime(1);
+        if(tiledPaper != null)
+            callback.paint(tiledPaper);
+        else
+            callback.paint(paper.getGraphics());
     }
 }
@@ -0,0 +1,294 @@
+package edu.macalester.turtle;
+
+import java.awt.Color;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records turtles' actions so they can be played back later, for example to draw them again
+ * to a different renderer.
+ * <p>
+ * Events are packed into compact binary records stored outside the Java heap, so even tens of
+ * millions of them take predictable memory and put no load on the garbage collector. Each record
+ * holds a one-byte opcode, the turtle's ID, and the event's arguments. Colors are stored as indexes
+ * into a table of the distinct colors seen so far. A move that starts where the turtle last
+ * was (the usual case) omits its starting point.
+ * <p>
+ * To play back a recording, either call {@link #replay(TurtleObserver)}, or for observers such as
+ * {@link TurtleProgram} that need turtles added to them first, call {@link #createTurtles()},
+ * add the turtles, and pass them to {@link #replay(Turtle[])}.
+ * <p>
+ * A recording can be saved to a file with {@link #save(String)} and played back later with
+ * {@link TurtleRecordingFile}. Call {@link #markFrame()} to mark points in the recording that
+ * playback can later start from.
+ */
+public class TurtleRecorder implements TurtleObserver {
+    static final byte
+        MOVED      = 1,   // id, x1, y1
+        MOVED_FROM = 2,   // id, x0, y0, x1, y1
+        TURNED     = 3,   // id, oldDir, newDir
+        CHANGED    = 4,   // id, x, y, direction, stepSize, penWidth, color index, pen down
+        FRAME      = 5;   // frame number
+    
+    static final int MAX_RECORD_SIZE = 1 + 4 + 5 * 8 + 4 + 1;
+    private static final int CHUNK_SIZE = 1 << 22;
+    
+    private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    private ByteBuffer current;
+    private long eventCount;
+    private long[] frameStarts = new long[16];  // event number of each frame mark
+    private int frameCount;
+    
+    private final Map<Turtle, Integer> turtleIDs = new IdentityHashMap<Turtle, Integer>();
+    private double[] lastX = new double[16], lastY = new double[16];
+    
+    private final List<Color> colors = new ArrayList<Color>();
+    private final Map<Color, Integer> colorIndexes = new HashMap<Color, Integer>();
+    
+    /**
+     * Starts recording the given turtle's actions, beginning with its current state.
+     */
+    public synchronized void add(Turtle turtle) {
+        turtle.addObserver(this);
+        turtleID(turtle);
+    }
+    
+    /**
+     * The number of events recorded so far.
+     */
+    public synchronized long getEventCount() {
+        return eventCount;
+    }
+    
+    /**
+     * The number of bytes of recorded events, not counting unused buffer space.
+     */
+    public synchronized long getSize() {
+        long size = 0;
+        for(ByteBuffer chunk : chunks)
+            size += chunk.position();
+        return size;
+    }
+    
+    /**
+     * The number of frames marked so far.
+     */
+    public synchronized int getFrameCount() {
+        return frameCount;
+    }
+    
+    /**
+     * The number of distinct turtles recorded so far.
+     */
+    public synchronized int getTurtleCount() {
+        return turtleIDs.size();
+    }
+    
+    /**
+     * Discards everything recorded so far. Turtles already added keep being recorded.
+     */
+    public synchronized void clear() {
+        chunks.clear();
+        current = null;
+        eventCount = 0;
+        frameCount = 0;
+        for(Map.Entry<Turtle, Integer> entry : turtleIDs.entrySet())
+            recordChange(entry.getValue(), entry.getKey());
+    }
+    
+    // ------ Recording ------
+    
+    /**
+     * Marks the start of a new frame, such as one step of an animation. Frames are numbered
+     * from 0 in the order they are marked.
+     */
+    public synchronized void markFrame() {
+        if(frameCount == frameStarts.length)
+            frameStarts = Arrays.copyOf(frameStarts, frameCount * 2);
+        frameStarts[frameCount] = eventCount;
+        reserve().put(FRAME).putInt(frameCount++);
+    }
+    
+    @Override
+    public synchronized void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) {
+        int id = turtleID(turtle);
+        if(x0 == lastX[id] && y0 == lastY[id]) {
+            ByteBuffer buf = reserve();
+            buf.put(MOVED).putInt(id).putDouble(x1).putDouble(y1);
+        } else {
+            ByteBuffer buf = reserve();
+            buf.put(MOVED_FROM).putInt(id).putDouble(x0).putDouble(y0).putDouble(x1).putDouble(y1);
+        }
+        lastX[id] = x1;
+        lastY[id] = y1;
+    }
+
+    @Override
+    public synchronized void turtleTurned(Turtle turtle, double oldDir, double newDir) {
+        int id = turtleID(turtle);
+        reserve().put(TURNED).putInt(id).putDouble(oldDir).putDouble(newDir);
+    }
+
+    @Override
+    public synchronized void turtleChanged(Turtle turtle) {
+        recordChange(turtleID(turtle), turtle);
+    }
+    
+    private int turtleID(Turtle turtle) {
+        Integer id = turtleIDs.get(turtle);
+        if(id != null)
+            return id;
+        
+        id = turtleIDs.size();
+        turtleIDs.put(turtle, id);
+        if(id >= lastX.length) {
+            lastX = Arrays.copyOf(lastX, id * 2);
+            lastY = Arrays.copyOf(lastY, id * 2);
+        }
+        recordChange(id, turtle);  // so playback starts from the turtle's state when first seen
+        return id;
+    }
+    
+    private void recordChange(int id, Turtle turtle) {
+        reserve()
+            .put(CHANGED)
+            .putInt(id)
+            .putDouble(turtle.getX())
+            .putDouble(turtle.getY())
+            .putDouble(turtle.getDirection())
+            .putDouble(turtle.getStepSize())
+            .putDouble(turtle.getPenWidth())
+            .putInt(colorIndex(turtle.getColor()))
+            .put((byte) (turtle.isPenDown() ? 1 : 0));
+        lastX[id] = turtle.getX();
+        lastY[id] = turtle.getY();
+    }
+    
+    private int colorIndex(Color color) {
+        Integer index = colorIndexes.get(color);
+        if(index == null) {
+            index = colors.size();
+            colors.add(color);
+            colorIndexes.put(color, index);
+        }
+        return index;
+    }
+    
+    /**
+     * Returns a buffer with room for one more record, and counts the event.
+     */
+    private ByteBuffer reserve() {
+        if(current == null || current.remaining() < MAX_RECORD_SIZE) {
+            current = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            chunks.add(current);
+        }
+        eventCount++;
+        return current;
+    }
+    
+    // ------ Saving ------
+    
+    /**
+     * Saves everything recorded so far to the given file. Read it back with {@link TurtleRecordingFile}.
+     */
+    public synchronized void save(String filename) {
+        TurtleRecordingFile.write(this, filename);
+    }
+    
+    /**
+     * Returns the recorded events as read-only buffers positioned at their start. Caller must
+     * hold the lock on this.
+     */
+    List<ByteBuffer> getChunks() {
+        List<ByteBuffer> result = new ArrayList<ByteBuffer>();
+        for(ByteBuffer chunk : chunks) {
+            ByteBuffer buf = chunk.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            buf.flip();
+            result.add(buf);
+        }
+        return result;
+    }
+    
+    List<Color> getColors() {
+        return colors;
+    }
+    
+    long getFrameStart(int frame) {
+        return frameStarts[frame];
+    }
+    
+    // ------ Playback ------
+    
+    /**
+     * Creates a fresh turtle for each turtle recorded so far, for use with {@link #replay(Turtle[])}.
+     */
+    public synchronized Turtle[] createTurtles() {
+        Turtle[] turtles = new Turtle[turtleIDs.size()];
+        for(int n = 0; n < turtles.length; n++)
+            turtles[n] = new Turtle(0, 0);
+        return turtles;
+    }
+    
+    /**
+     * Plays back everything recorded so far into the given observer, using stand-in turtles.
+     */
+    public void replay(TurtleObserver observer) {
+        Turtle[] turtles = createTurtles();
+        for(Turtle turtle : turtles)
+            turtle.addObserver(observer);
+        replay(turtles);
+        for(Turtle turtle : turtles)
+            turtle.removeObserver(observer);
+    }
+    
+    /**
+     * Plays back everything recorded so far by making the given turtles repeat the recorded
+     * actions, notifying their observers exactly as the original turtles did. The array must
+     * be at least as long as the number of recorded turtles; see {@link #createTurtles()}.
+     */
+    public synchronized void replay(Turtle[] turtles) {
+        for(ByteBuffer buf : getChunks())
+            replay(buf, turtles, colors, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Plays back up to maxEvents records from the given buffer, starting at its position and
+     * stopping at its limit. Returns the number of events played.
+     */
+    static long replay(ByteBuffer buf, Turtle[] turtles, List<Color> colors, long maxEvents) {
+        long count = 0;
+        while(count < maxEvents && buf.hasRemaining()) {
+            byte opcode = buf.get();
+            int id = buf.getInt();
+            switch(opcode) {
+                case MOVED:
+                    turtles[id].replayMove(turtles[id].getX(), turtles[id].getY(), buf.getDouble(), buf.getDouble());
+                    break;
+                case MOVED_FROM:
+                    turtles[id].replayMove(buf.getDouble(), buf.getDouble(), buf.getDouble(), buf.getDouble());
+                    break;
+                case TURNED:
+                    turtles[id].replayTurn(buf.getDouble(), buf.getDouble());
+                    break;
+                case CHANGED:
+                    turtles[id].replayChange(
+                        buf.getDouble(), buf.getDouble(), buf.getDouble(), buf.getDouble(), buf.getDouble(),
+                        colors.get(buf.getInt()),
+                        buf.get() != 0);
+                    break;
+                case FRAME:
+                    break;  // id is the frame number; nothing to play
+                default:
+                    throw new IllegalStateException("Corrupt recording: unknown opcode " + opcode);
+            }
+            count++;
+        }
+        return count;
+    }
+}
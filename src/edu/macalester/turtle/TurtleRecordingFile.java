@@ -0,0 +1,406 @@
+package edu.macalester.turtle;
+
+import java.awt.Color;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A turtle recording saved by {@link TurtleRecorder#save(String)}, which can be played back
+ * from any event or frame. The file is memory-mapped a piece at a time as it plays, so even
+ * recordings far larger than the Java heap can be played back.
+ * <p>
+ * The file holds, in order (all numbers little-endian):
+ * <ul>
+ *   <li>a fixed-size header: magic number, format version, counts, and the offsets of the sections below;</li>
+ *   <li>the color table, one ARGB int per color;</li>
+ *   <li>the event records, exactly as {@link TurtleRecorder} stores them;</li>
+ *   <li>keyframes: every {@code indexInterval} events, a snapshot of every turtle's state;</li>
+ *   <li>the index: for each keyframe, the file offsets of its first event and of the keyframe itself;</li>
+ *   <li>the frame table: the event number where each frame starts.</li>
+ * </ul>
+ * To start playing at an arbitrary event, the player loads the nearest earlier keyframe, silently
+ * applies the events between it and the starting event, and then tells the turtles their state
+ * with {@link TurtleObserver#turtleChanged(Turtle) turtleChanged()}.
+ */
+public class TurtleRecordingFile implements Closeable {
+    private static final byte[] MAGIC = { 'T', 'R', 'T', 'L' };
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 80;
+
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final int KEYFRAME_TURTLE_SIZE = 1 + 5 * 8 + 4 + 1;
+
+    /**
+     * Keyframes are written at least this many events apart, and further apart when there are
+     * many turtles, so that keyframes stay small compared to the events.
+     */
+    private static final int MIN_INDEX_INTERVAL = 1 << 16, MAX_INDEX_INTERVAL = 1 << 24;
+    private static final int INDEX_INTERVAL_PER_TURTLE = 64;
+
+    private final FileChannel channel;
+    private final int turtleCount, frameCount, indexInterval, indexCount;
+    private final long eventCount, dataEnd, indexOffset, frameTableOffset;
+    private final List<Color> colors = new ArrayList<Color>();
+
+    /**
+     * Opens the given recording for playback.
+     *
+     * @throws IllegalArgumentException if the file is not a turtle recording
+     */
+    public TurtleRecordingFile(String filename) {
+        try {
+            channel = new RandomAccessFile(filename, "r").getChannel();
+            boolean opened = false;
+            try {
+                ByteBuffer header = map(0, HEADER_SIZE);
+                for(byte b : MAGIC)
+                    if(header.get() != b)
+                        throw new IllegalArgumentException(filename + " is not a turtle recording");
+                int version = header.getInt();
+                if(version != VERSION)
+                    throw new IllegalArgumentException(filename + " has unsupported format version " + version);
+
+                turtleCount = header.getInt();
+                int colorCount = header.getInt();
+                eventCount = header.getLong();
+                frameCount = header.getInt();
+                indexInterval = header.getInt();
+                long colorTableOffset = header.getLong();
+                long dataOffset = header.getLong();
+                dataEnd = dataOffset + header.getLong();
+                indexOffset = header.getLong();
+                indexCount = header.getInt();
+                header.getInt();  // padding
+                frameTableOffset = header.getLong();
+
+                ByteBuffer colorTable = map(colorTableOffset, colorCount * 4);
+                for(int n = 0; n < colorCount; n++)
+                    colors.add(new Color(colorTable.getInt(), true));
+                opened = true;
+            } finally {
+                if(!opened)
+                    closeQuietly();  // not a recording, or unreadable; don't leak the file
+            }
+        } catch (IOException e) {
+            // Throw as runtime exception so students don't have to deal with catching it
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already failing; report the original problem instead
+        }
+    }
+
+    public int getTurtleCount() {
+        return turtleCount;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns the number of the event that marks the start of the given frame.
+     */
+    public long getFrameStart(int frame) {
+        if(frame < 0 || frame >= frameCount)
+            throw new IndexOutOfBoundsException("No frame " + frame + " in recording of " + frameCount + " frames");
+        try {
+            return map(frameTableOffset + frame * 8L, 8).getLong();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // ------ Playback ------
+
+    /**
+     * Creates a fresh turtle for each recorded turtle, for use with {@link #replay(Turtle[])}.
+     */
+    public Turtle[] createTurtles() {
+        Turtle[] turtles = new Turtle[turtleCount];
+        for(int n = 0; n < turtles.length; n++)
+            turtles[n] = new Turtle(0, 0);
+        return turtles;
+    }
+
+    /**
+     * Plays back the whole recording into the given observer, using stand-in turtles.
+     */
+    public void replay(TurtleObserver observer) {
+        Turtle[] turtles = createTurtles();
+        for(Turtle turtle : turtles)
+            turtle.addObserver(observer);
+        replay(turtles);
+        for(Turtle turtle : turtles)
+            turtle.removeObserver(observer);
+    }
+
+    /**
+     * Plays back the whole recording by making the given turtles repeat the recorded actions.
+     * See {@link TurtleRecorder#replay(Turtle[])}.
+     */
+    public void replay(Turtle[] turtles) {
+        replay(turtles, 0, eventCount);
+    }
+
+    /**
+     * Plays back the frames from startFrame up to but not including endFrame. If endFrame is
+     * the frame count, plays to the end of the recording.
+     */
+    public void replayFrames(Turtle[] turtles, int startFrame, int endFrame) {
+        replay(turtles,
+            getFrameStart(startFrame),
+            endFrame == frameCount ? eventCount : getFrameStart(endFrame));
+    }
+
+    /**
+     * Plays back events from startEvent up to but not including endEvent. Turtles which already
+     * exist at startEvent first have their state at that point set, with a call to
+     * {@link TurtleObserver#turtleChanged(Turtle) turtleChanged()}.
+     */
+    public void replay(Turtle[] turtles, long startEvent, long endEvent) {
+        if(startEvent < 0 || endEvent > eventCount || startEvent > endEvent)
+            throw new IndexOutOfBoundsException(
+                "Cannot play events " + startEvent + " to " + endEvent + " of " + eventCount);
+        if(turtles.length < turtleCount)
+            throw new IllegalArgumentException("Recording has " + turtleCount + " turtles, but only " + turtles.length + " given");
+        if(startEvent == endEvent)
+            return;
+
+        try {
+            int segment = (int) (startEvent / indexInterval);
+            ByteBuffer index = map(indexOffset + (long) segment * INDEX_ENTRY_SIZE, INDEX_ENTRY_SIZE);
+            long segmentStart = index.getLong();
+            Keyframe keyframe = new Keyframe(turtleCount, colors);
+            keyframe.read(map(index.getLong(), turtleCount * KEYFRAME_TURTLE_SIZE));
+
+            ByteBuffer events = mapSegment(segment, segmentStart);
+            TurtleRecorder.replay(events, keyframe.turtles, colors, startEvent - (long) segment * indexInterval);
+            keyframe.applyTo(turtles);
+
+            long remaining = endEvent - startEvent;
+            while(true) {
+                remaining -= TurtleRecorder.replay(events, turtles, colors, remaining);
+                if(remaining == 0)
+                    break;
+                segment++;
+                events = mapSegment(segment, map(indexOffset + (long) segment * INDEX_ENTRY_SIZE, 8).getLong());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private ByteBuffer mapSegment(int segment, long start) throws IOException {
+        long end = segment + 1 < indexCount
+            ? map(indexOffset + (long) (segment + 1) * INDEX_ENTRY_SIZE, 8).getLong()
+            : dataEnd;
+        return map(start, end - start);
+    }
+
+    private ByteBuffer map(long position, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // ------ Writing ------
+
+    /**
+     * Writes everything the given recorder has recorded to the given file. Caller must hold
+     * the lock on the recorder.
+     */
+    static void write(TurtleRecorder recorder, String filename) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(filename, "rw");
+            try {
+                file.setLength(0);
+                write(recorder, file.getChannel());
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            // Throw as runtime exception so students don't have to deal with catching it
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void write(TurtleRecorder recorder, FileChannel channel) throws IOException {
+        List<Color> colors = recorder.getColors();
+        int turtleCount = recorder.getTurtleCount();
+        long eventCount = recorder.getEventCount();
+        int frameCount = recorder.getFrameCount();
+        int indexInterval = (int) Math.min(MAX_INDEX_INTERVAL,
+            Math.max(MIN_INDEX_INTERVAL, (long) turtleCount * INDEX_INTERVAL_PER_TURTLE));
+
+        long colorTableOffset = HEADER_SIZE;
+        long dataOffset = colorTableOffset + colors.size() * 4;
+        long dataLength = recorder.getSize();
+
+        ByteBuffer colorTable = ByteBuffer.allocate(colors.size() * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for(Color color : colors)
+            colorTable.putInt(color.getRGB());
+        colorTable.flip();
+        writeFully(channel, colorTable, colorTableOffset);
+
+        // Write the events, replaying them into stand-in turtles to produce keyframes as we go
+        List<Long> index = new ArrayList<Long>();
+        Keyframe keyframe = new Keyframe(turtleCount, colors);
+        ByteBuffer keyframeBuf = ByteBuffer.allocate(turtleCount * KEYFRAME_TURTLE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long keyframePos = dataOffset + dataLength;
+        long dataPos = dataOffset, event = 0;
+        for(ByteBuffer chunk : recorder.getChunks()) {
+            writeFully(channel, chunk.duplicate(), dataPos);
+            while(chunk.hasRemaining()) {
+                if(event % indexInterval == 0) {
+                    index.add(dataPos + chunk.position());
+                    index.add(keyframePos);
+                    keyframeBuf.clear();
+                    keyframe.write(keyframeBuf);
+                    keyframeBuf.flip();
+                    keyframePos += writeFully(channel, keyframeBuf, keyframePos);
+                }
+                event += TurtleRecorder.replay(chunk, keyframe.turtles, colors, indexInterval - event % indexInterval);
+            }
+            dataPos += chunk.limit();
+        }
+
+        long indexOffset = keyframePos;
+        ByteBuffer indexBuf = ByteBuffer.allocate(index.size() * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for(long offset : index)
+            indexBuf.putLong(offset);
+        indexBuf.flip();
+        long frameTableOffset = indexOffset + writeFully(channel, indexBuf, indexOffset);
+
+        ByteBuffer frameTable = ByteBuffer.allocate(frameCount * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for(int frame = 0; frame < frameCount; frame++)
+            frameTable.putLong(recorder.getFrameStart(frame));
+        frameTable.flip();
+        writeFully(channel, frameTable, frameTableOffset);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC)
+            .putInt(VERSION)
+            .putInt(turtleCount)
+            .putInt(colors.size())
+            .putLong(eventCount)
+            .putInt(frameCount)
+            .putInt(indexInterval)
+            .putLong(colorTableOffset)
+            .putLong(dataOffset)
+            .putLong(dataLength)
+            .putLong(indexOffset)
+            .putInt(index.size() / 2)
+            .putInt(0)  // padding
+            .putLong(frameTableOffset);
+        header.flip();
+        writeFully(channel, header, 0);
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        long written = 0;
+        while(buf.hasRemaining())
+            written += channel.write(buf, position + written);
+        return written;
+    }
+
+    // ------ Keyframes ------
+
+    /**
+     * The state of every turtle at some point in a recording, kept in stand-in turtles that
+     * have no observers except one noting whether the recording has mentioned them yet.
+     */
+    private static class Keyframe {
+        private final Turtle[] turtles;
+        private final SeenFlag[] seen;
+        private final List<Color> colors;
+        private final Map<Color, Integer> colorIndexes = new HashMap<Color, Integer>();
+
+        Keyframe(int turtleCount, List<Color> colors) {
+            this.colors = colors;
+            for(int n = 0; n < colors.size(); n++)
+                colorIndexes.put(colors.get(n), n);
+
+            turtles = new Turtle[turtleCount];
+            seen = new SeenFlag[turtleCount];
+            for(int n = 0; n < turtleCount; n++) {
+                turtles[n] = new Turtle(0, 0);
+                seen[n] = new SeenFlag();
+                turtles[n].addObserver(seen[n]);
+            }
+        }
+
+        void write(ByteBuffer buf) {
+            for(int n = 0; n < turtles.length; n++) {
+                Turtle turtle = turtles[n];
+                buf.put((byte) (seen[n].seen ? 1 : 0))
+                    .putDouble(turtle.getX())
+                    .putDouble(turtle.getY())
+                    .putDouble(turtle.getDirection())
+                    .putDouble(turtle.getStepSize())
+                    .putDouble(turtle.getPenWidth())
+                    .putInt(seen[n].seen ? colorIndexes.get(turtle.getColor()) : 0)
+                    .put((byte) (turtle.isPenDown() ? 1 : 0));
+            }
+        }
+
+        void read(ByteBuffer buf) {
+            for(int n = 0; n < turtles.length; n++) {
+                boolean turtleSeen = buf.get() != 0;
+                double x = buf.getDouble(), y = buf.getDouble(), direction = buf.getDouble(),
+                       stepSize = buf.getDouble(), penWidth = buf.getDouble();
+                int colorIndex = buf.getInt();
+                boolean penDown = buf.get() != 0;
+                if(turtleSeen)
+                    turtles[n].replayChange(x, y, direction, stepSize, penWidth, colors.get(colorIndex), penDown);
+            }
+        }
+
+        /**
+         * Gives every turtle the recording has mentioned so far its state in this keyframe.
+         */
+        void applyTo(Turtle[] targets) {
+            for(int n = 0; n < turtles.length; n++)
+                if(seen[n].seen) {
+                    Turtle turtle = turtles[n];
+                    targets[n].replayChange(
+                        turtle.getX(), turtle.getY(), turtle.getDirection(),
+                        turtle.getStepSize(), turtle.getPenWidth(), turtle.getColor(), turtle.isPenDown());
+                }
+        }
+    }
+
+    private static class SeenFlag implements TurtleObserver {
+        private boolean seen;
+
+        public void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) { }
+        public void turtleTurned(Turtle turtle, double oldDir, double newDir) { }
+
+        public void turtleChanged(Turtle turtle) {
+            seen = true;  // every turtle's first record is its initial state
+        }
+    }
+}
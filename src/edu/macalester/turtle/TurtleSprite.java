@@ -1,10 +1,18 @@
 package edu.macalester.turtle;
 
+import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Ellipse2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.imageio.ImageIO;
 
@@ -12,11 +20,31 @@ import javax.imageio.ImageIO;
  * A visual representation of a virtual turtle robot. A TurtleSprite's position and direction may
  * differ from the state of the turtle it represents; this is useful for animating state changes.
  * You can bring a sprite's state back into sync with the turtle's using {@link #sync()}.
+ * <p>
+ * A sprite is safe to use from several threads: the turtle's thread syncs it while the
+ * screen update thread animates and draws it.
+ * <p>
+ * Sprite images are rendered once for each combination of direction (rounded to the nearest
+ * {@value #DIRECTION_STEP} degrees), size and pen color, and kept in a cache shared by all
+ * sprites, so drawing a sprite is usually a single image copy.
  * 
  * @author Paul Cantrell
  */
 public class TurtleSprite {
     private static final double TURTLE_BODY_SIZE = 32;
+    
+    /**
+     * Sprite images are cached for directions in multiples of this many degrees.
+     */
+    public static final double DIRECTION_STEP = 2.5;
+    private static final int DIRECTION_STEPS = (int) Math.round(360 / DIRECTION_STEP);
+    
+    /**
+     * The total number of pixels in cached sprite images, beyond which the least recently used
+     * images are discarded.
+     */
+    private static final int MAX_CACHED_PIXELS = 1 << 22;
+    
     private static final BufferedImage shadowImg, bodyImg, overlayImg;
 
     static {
@@ -38,7 +66,9 @@ public class TurtleSprite {
     
     private final Turtle turtle;
     private double x, y, direction;
+    private Color penColor;  // the turtle's pen color, or null if its pen is up
     private double turtleSize = 0.5;
+    private boolean repaintNeeded;
 
     /**
      * Creates a sprite to represent the given turtle.
@@ -50,77 +80,204 @@ public class TurtleSprite {
     
     /**
      * Makes the sprite's state match its turtle's, in case the sprite's position or direction
-     * have changed during animation.
+     * have changed during animation, or the turtle's pen has changed. Returns true if the sprite
+     * now looks different, and false if the turtle's change was to something the sprite does not
+     * show, such as its step size.
+     */
+    public synchronized boolean sync() {
+        double newX = turtle.getX(), newY = turtle.getY(), newDirection = turtle.getDirection();
+        Color newPenColor = turtle.isPenDown() ? turtle.getColor() : null;
+        if(newX == x && newY == y && newDirection == direction
+                && (newPenColor == null ? penColor == null : newPenColor.equals(penColor)))
+            return false;
+        x = newX;
+        y = newY;
+        direction = newDirection;
+        penColor = newPenColor;
+        repaintNeeded = true;
+        return true;
+    }
+    
+    /**
+     * Returns true if {@link #sync()} has changed the sprite's appearance since this was last
+     * called, even if its bounds stayed the same.
      */
-    public void sync() {
-        x = turtle.getX();
-        y = turtle.getY();
-        direction = turtle.getDirection();
+    public synchronized boolean takeRepaintNeeded() {
+        boolean needed = repaintNeeded;
+        repaintNeeded = false;
+        return needed;
     }
 
     /**
      * Draws the sprite to the given graphics context.
      */
-    public void draw(Graphics2D g2) {
-        AffineTransform trans = AffineTransform.getTranslateInstance(
-            x - shadowImg.getWidth()  / 2 * turtleSize,
-            y - shadowImg.getHeight() / 2 * turtleSize);
-        trans.scale(turtleSize, turtleSize);
-        
-        AffineTransform transAndRot = new AffineTransform(trans); 
-        transAndRot.rotate(
-            (direction + 90) * Math.PI / 180,   // image is oriented up
-            shadowImg.getWidth()  / 2,
-            shadowImg.getHeight() / 2);
-        
-        g2.drawImage(shadowImg, trans, null);
-        
-        double radius = TURTLE_BODY_SIZE * turtleSize / 2;
-        if(turtle.isPenDown()) {
-            g2.setPaint(turtle.getColor());
-            g2.fill(new Ellipse2D.Double(
-                x - radius,
-                y - radius,
-                radius * 2,
-                radius * 2));
-        }
-        
-        g2.drawImage(bodyImg, transAndRot, null);
-        g2.drawImage(overlayImg, trans, null);
+    public synchronized void draw(Graphics2D g2) {
+        BufferedImage image = getImage(
+            g2.getDeviceConfiguration(),
+            Math.round(direction / DIRECTION_STEP),
+            turtleSize,
+            penColor);
+        int half = image.getWidth() / 2;
+        g2.drawImage(image, (int) Math.round(x) - half, (int) Math.round(y) - half, null);
     }
     
-    public double getX() {
+    /**
+     * Returns a rectangle enclosing every pixel {@link #draw(Graphics2D)} could touch, at any
+     * direction.
+     */
+    public synchronized Rectangle getBounds() {
+        int size = imageSize(turtleSize), half = size / 2;
+        return new Rectangle((int) Math.round(x) - half, (int) Math.round(y) - half, size, size);
+    }
+    
+    public synchronized double getX() {
         return x;
     }
 
-    public void setX(double x) {
+    public synchronized void setX(double x) {
         this.x = x;
     }
 
-    public double getY() {
+    public synchronized double getY() {
         return y;
     }
 
-    public void setY(double y) {
+    public synchronized void setY(double y) {
         this.y = y;
     }
 
-    public double getDirection() {
+    public synchronized double getDirection() {
         return direction;
     }
 
-    public void setDirection(double direction) {
+    public synchronized void setDirection(double direction) {
         this.direction = direction;
     }
 
     /**
      * The scale of the turtle sprite, relative to its default size. 
      */
-    public double getTurtleSize() {
+    public synchronized double getTurtleSize() {
         return turtleSize;
     }
 
-    public void setTurtleSize(double turtleSize) {
+    public synchronized void setTurtleSize(double turtleSize) {
         this.turtleSize = turtleSize;
     }
+    
+    // ------ Image cache ------
+    
+    private static final Map<ImageKey, BufferedImage> imageCache =
+        new LinkedHashMap<ImageKey, BufferedImage>(64, 0.75f, true);  // least recently used first
+    private static int cachedPixels;
+    
+    /**
+     * The width and height of the square image holding a sprite of the given size, which has
+     * room for the sprite at any rotation and is always even.
+     */
+    private static int imageSize(double turtleSize) {
+        double radius = Math.hypot(shadowImg.getWidth(), shadowImg.getHeight()) / 2 * turtleSize;
+        return (int) Math.ceil(radius) * 2 + 2;
+    }
+    
+    /**
+     * Returns the cached image of a sprite in the given state, rendering it if necessary.
+     * 
+     * @param penColor the color shown under the turtle, or null if the pen is up
+     */
+    private static BufferedImage getImage(GraphicsConfiguration config, long directionSteps, double turtleSize, Color penColor) {
+        directionSteps %= DIRECTION_STEPS;
+        if(directionSteps < 0)
+            directionSteps += DIRECTION_STEPS;
+        ImageKey key = new ImageKey((int) directionSteps, turtleSize, penColor);
+        synchronized(imageCache) {
+            BufferedImage image = imageCache.get(key);
+            if(image != null)
+                return image;
+            
+            image = renderImage(config, directionSteps * DIRECTION_STEP, turtleSize, penColor);
+            imageCache.put(key, image);
+            cachedPixels += image.getWidth() * image.getHeight();
+            for(Iterator<BufferedImage> iter = imageCache.values().iterator(); cachedPixels > MAX_CACHED_PIXELS && iter.hasNext(); ) {
+                BufferedImage eldest = iter.next();
+                if(eldest == image)
+                    break;
+                cachedPixels -= eldest.getWidth() * eldest.getHeight();
+                iter.remove();
+            }
+            return image;
+        }
+    }
+    
+    /**
+     * Draws the shadow, pen color, body and overlay of a sprite centered in a new image.
+     */
+    private static BufferedImage renderImage(GraphicsConfiguration config, double direction, double turtleSize, Color penColor) {
+        int size = imageSize(turtleSize);
+        BufferedImage image = config != null
+            ? config.createCompatibleImage(size, size, Transparency.TRANSLUCENT)
+            : new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2 = image.createGraphics();
+        TurtlePaper.enableAntialiasing(g2);
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        
+        double center = size / 2;
+        AffineTransform trans = AffineTransform.getTranslateInstance(
+            center - shadowImg.getWidth()  / 2 * turtleSize,
+            center - shadowImg.getHeight() / 2 * turtleSize);
+        trans.scale(turtleSize, turtleSize);
+        
+        AffineTransform transAndRot = new AffineTransform(trans); 
+        transAndRot.rotate(
+            (direction + 90) * Math.PI / 180,   // image is oriented up
+            shadowImg.getWidth()  / 2,
+            shadowImg.getHeight() / 2);
+        
+        g2.drawImage(shadowImg, trans, null);
+        
+        double radius = TURTLE_BODY_SIZE * turtleSize / 2;
+        if(penColor != null) {
+            g2.setPaint(penColor);
+            g2.fill(new Ellipse2D.Double(
+                center - radius,
+                center - radius,
+                radius * 2,
+                radius * 2));
+        }
+        
+        g2.drawImage(bodyImg, transAndRot, null);
+        g2.drawImage(overlayImg, trans, null);
+        g2.dispose();
+        return image;
+    }
+    
+    private static class ImageKey {
+        private final int directionSteps;
+        private final double turtleSize;
+        private final Color penColor;
+        
+        ImageKey(int directionSteps, double turtleSize, Color penColor) {
+            this.directionSteps = directionSteps;
+            this.turtleSize = turtleSize;
+            this.penColor = penColor;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof ImageKey))
+                return false;
+            ImageKey other = (ImageKey) o;
+            return directionSteps == other.directionSteps
+                && turtleSize == other.turtleSize
+                && (penColor == null ? other.penColor == null : penColor.equals(other.penColor));
+        }
+        
+        @Override
+        public int hashCode() {
+            long sizeBits = Double.doubleToLongBits(turtleSize);
+            return directionSteps * 31 * 31
+                 + (int) (sizeBits ^ (sizeBits >>> 32)) * 31
+                 + (penColor == null ? 0 : penColor.hashCode());
+        }
+    }
 }
@@ -0,0 +1,207 @@
+package edu.macalester.turtle;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Draws the segments remembered by a {@link SegmentIndex} at any zoom level, so a drawing stays
+ * sharp however far in it is zoomed. Only the segments touching the area being drawn are visited.
+ * <p>
+ * Detail too small to see at the zoom level is left out. Consecutive segments that share a pen
+ * color and width are drawn as a single polyline, and a point on that polyline is dropped when
+ * leaving it out would move the line by less than half a pixel. Long runs of tiny segments, such
+ * as a dense spiral seen from far away, therefore cost about as much to draw as the pixels they
+ * cover.
+ * <p>
+ * A renderer holds no state of its own, so several threads can use one at once.
+ *
+ * @see TurtleProgram#setVectorDisplay(boolean)
+ */
+public class VectorRenderer {
+    /**
+     * Points that move the line by less than this many pixels are left out.
+     */
+    private static final double DETAIL_PIXELS = 0.5;
+
+    /**
+     * Segments are read from the index this many at a time.
+     */
+    private static final int BLOCK_SIZE = 4096;
+
+    /**
+     * The most points dropped from one run of the polyline, so that checking them stays cheap
+     * along long straight lines.
+     */
+    private static final int MAX_DROPPED_POINTS = 64;
+
+    private final SegmentIndex index;
+
+    public VectorRenderer(SegmentIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Draws every segment touching the given area of the paper. The graphics context must already
+     * be transformed to map paper coordinates to pixels at the given zoom, which is the number of
+     * pixels per unit of paper.
+     */
+    public void draw(Graphics2D g, Rectangle2D area, double zoom) {
+        int[] segments = index.getSegments(widen(area, zoom));
+        draw(g, area, zoom, segments, segments.length);
+    }
+
+    /**
+     * Returns a new image of the given area of the paper at the given zoom, with a white background.
+     */
+    public BufferedImage renderImage(Rectangle2D area, double zoom) {
+        BufferedImage image = new BufferedImage(
+            (int) Math.ceil(area.getWidth() * zoom),
+            (int) Math.ceil(area.getHeight() * zoom),
+            BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        TurtlePaper.enableAntialiasing(g);
+        g.scale(zoom, zoom);
+        g.translate(-area.getX(), -area.getY());
+        draw(g, area, zoom);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Draws the given segments that touch the given area, in the order given.
+     */
+    void draw(Graphics2D g, Rectangle2D area, double zoom, int[] segments, int count) {
+        Rectangle2D widened = widen(area, zoom);
+        float[] coords = new float[BLOCK_SIZE * 4], penWidths = new float[BLOCK_SIZE];
+        int[] colors = new int[BLOCK_SIZE];
+        PolylineBuilder builder = new PolylineBuilder(g, zoom);
+
+        for(int start = 0; start < count; start += BLOCK_SIZE) {
+            int blockCount = Math.min(BLOCK_SIZE, count - start);
+            index.readSegments(segments, start, blockCount, coords, penWidths, colors);
+            for(int n = 0; n < blockCount; n++) {
+                float x0 = coords[n * 4], y0 = coords[n * 4 + 1], x1 = coords[n * 4 + 2], y1 = coords[n * 4 + 3];
+                if(!widened.intersectsLine(x0, y0, x1, y1)) {
+                    builder.finish();  // the line leaves the area, so the next one it touches starts a new run
+                    continue;
+                }
+                builder.add(colors[n], penWidths[n], x0, y0, x1, y1);
+            }
+        }
+        builder.finish();
+    }
+
+    /**
+     * Returns the area widened to take in segments whose pen reaches into it from outside.
+     */
+    Rectangle2D widen(Rectangle2D area, double zoom) {
+        double margin = index.getMaxPenWidth() / 2 + 1 / zoom;
+        return new Rectangle2D.Double(
+            area.getX() - margin,
+            area.getY() - margin,
+            area.getWidth()  + margin * 2,
+            area.getHeight() + margin * 2);
+    }
+
+    /**
+     * Gathers consecutive segments of the same pen into a simplified polyline, and strokes it
+     * when the pen changes or the line breaks.
+     */
+    private static class PolylineBuilder {
+        private final Graphics2D g;
+        private final double toleranceSq, offset;
+
+        private Path2D.Float path;
+        private int color;
+        private float penWidth;
+        private float endX, endY;           // end of the last segment added
+        private double anchorX, anchorY;    // last point added to the path
+        private double pendingX, pendingY;  // next point, which may yet be replaced by a later one
+        private boolean hasPending;
+        private final double[] dropped = new double[MAX_DROPPED_POINTS * 2];  // points left out since the anchor
+        private int droppedCount;
+
+        PolylineBuilder(Graphics2D g, double zoom) {
+            this.g = g;
+            double tolerance = DETAIL_PIXELS / zoom;
+            toleranceSq = tolerance * tolerance;
+            offset = 0.5 / zoom;  // half-pixel offset, as in TurtlePaper.strokeSegment()
+        }
+
+        void add(int color, float penWidth, float x0, float y0, float x1, float y1) {
+            if(path == null || color != this.color || penWidth != this.penWidth) {
+                finish();
+                path = new Path2D.Float();
+                this.color = color;
+                this.penWidth = penWidth;
+                moveTo(x0, y0);
+            } else if(x0 != endX || y0 != endY) {
+                flushPending();
+                moveTo(x0, y0);
+            }
+            lineTo(x1, y1);
+            endX = x1;
+            endY = y1;
+        }
+
+        private void moveTo(double x, double y) {
+            path.moveTo(x + offset, y + offset);
+            anchorX = x;
+            anchorY = y;
+            droppedCount = 0;
+        }
+
+        /**
+         * Adds a point, first dropping the pending point if it and every point already dropped
+         * since the anchor lie within the tolerance of the line from the anchor to the new point.
+         */
+        private void lineTo(double x, double y) {
+            if(hasPending) {
+                if(droppedCount < MAX_DROPPED_POINTS && withinTolerance(x, y)) {
+                    dropped[droppedCount * 2] = pendingX;
+                    dropped[droppedCount * 2 + 1] = pendingY;
+                    droppedCount++;
+                } else
+                    flushPending();
+            }
+            pendingX = x;
+            pendingY = y;
+            hasPending = true;
+        }
+
+        private boolean withinTolerance(double x, double y) {
+            if(Line2D.ptSegDistSq(anchorX, anchorY, x, y, pendingX, pendingY) > toleranceSq)
+                return false;
+            for(int n = 0; n < droppedCount; n++)
+                if(Line2D.ptSegDistSq(anchorX, anchorY, x, y, dropped[n * 2], dropped[n * 2 + 1]) > toleranceSq)
+                    return false;
+            return true;
+        }
+
+        private void flushPending() {
+            if(!hasPending)
+                return;
+            path.lineTo(pendingX + offset, pendingY + offset);
+            anchorX = pendingX;
+            anchorY = pendingY;
+            hasPending = false;
+            droppedCount = 0;
+        }
+
+        void finish() {
+            if(path == null)
+                return;
+            flushPending();
+            g.setStroke(TurtlePaper.createStroke(penWidth));
+            g.setPaint(new Color(color, true));
+            g.draw(path);
+            path = null;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package edu.macalester.turtle;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The window's view of a {@link SegmentIndex} at some zoom and scroll position, drawn with a
+ * {@link VectorRenderer}. The view is cut into tiles, which are rendered on background threads
+ * and kept until they scroll well out of view or the zoom changes. Segments drawn after a tile
+ * is rendered are added to it on the next {@link #update()}, which sorts them into the tiles
+ * they touch so that each tile only draws its own.
+ * <p>
+ * While the tiles for a new zoom level are rendering, the old tiles are shown stretched in their place.
+ * <p>
+ * All methods must be called from the same thread, normally the event dispatch thread.
+ */
+class VectorView {
+    private static final int TILE_SIZE = 256;
+    private static final int TILE_SHIFT = 8;  // log2(TILE_SIZE)
+    
+    /**
+     * New segments are read from the index this many at a time.
+     */
+    private static final int BLOCK_SIZE = 4096;
+
+    private final SegmentIndex index;
+    private final VectorRenderer renderer;
+    private final ExecutorService executor;
+
+    private double originX, originY, zoom = 1;  // paper coordinates at the window's top left
+    private int width, height;
+
+    private Map<Long, Tile> tiles = new HashMap<Long, Tile>();
+    private Map<Long, Tile> oldTiles;  // from the previous zoom, shown until new tiles are ready
+    private double oldZoom;
+    private final Set<Long> requestedTiles = new HashSet<Long>();
+    private final Queue<Tile> renderedTiles = new ConcurrentLinkedQueue<Tile>();
+    private volatile int generation;  // changes whenever existing and in-progress tiles become useless
+    private int drawnSegments;        // number of segments drawn onto the tiles so far
+
+    public VectorView(SegmentIndex index, int threadCount) {
+        this.index = index;
+        renderer = new VectorRenderer(index);
+        executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Turtle vector renderer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Moves the view so the window, of the given size, shows the paper starting at the given
+     * point at the given zoom. Returns true if anything changed.
+     */
+    public boolean setView(double originX, double originY, double zoom, int width, int height) {
+        if(originX == this.originX && originY == this.originY && zoom == this.zoom
+                && width == this.width && height == this.height)
+            return false;
+
+        if(zoom != this.zoom) {
+            if(oldTiles == null || !tiles.isEmpty()) {  // keep the last zoom that had anything to show
+                oldTiles = tiles;
+                oldZoom = this.zoom;
+            }
+            tiles = new HashMap<Long, Tile>();
+            requestedTiles.clear();
+            generation++;
+        }
+        this.originX = originX;
+        this.originY = originY;
+        this.zoom = zoom;
+        this.width = width;
+        this.height = height;
+        return true;
+    }
+
+    public SegmentIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Throws away all tiles, after the index has been cleared.
+     */
+    public void clear() {
+        tiles.clear();
+        oldTiles = null;
+        requestedTiles.clear();
+        renderedTiles.clear();
+        drawnSegments = 0;
+        generation++;
+    }
+
+    /**
+     * Adds newly rendered tiles and newly drawn segments to the view, and starts rendering any
+     * visible tiles that are missing. Returns true if the view has changed.
+     */
+    public boolean update() {
+        boolean changed = false;
+
+        int segmentCount = index.getSegmentCount();
+        if(segmentCount > drawnSegments) {
+            drawNewSegments(drawnSegments, segmentCount);
+            drawnSegments = segmentCount;
+            changed = true;
+        }
+
+        Tile tile;
+        while((tile = renderedTiles.poll()) != null) {
+            if(tile.generation != generation)
+                continue;
+            tile.catchUp(drawnSegments);
+            requestedTiles.remove(tile.key());
+            tiles.put(tile.key(), tile);
+            changed = true;
+        }
+
+        boolean complete = true;
+        Rectangle visible = getVisibleTiles();
+        for(int ty = visible.y; ty < visible.y + visible.height; ty++)
+            for(int tx = visible.x; tx < visible.x + visible.width; tx++) {
+                long key = tileKey(tx, ty);
+                if(tiles.containsKey(key))
+                    continue;
+                complete = false;
+                if(requestedTiles.add(key))
+                    executor.execute(new RenderTask(new Tile(tx, ty, zoom, generation, drawnSegments)));
+            }
+        if(complete && oldTiles != null) {
+            oldTiles = null;
+            changed = true;
+        }
+
+        visible.grow(2, 2);  // forget tiles that have scrolled well out of view
+        for(Iterator<Tile> iter = tiles.values().iterator(); iter.hasNext(); ) {
+            Tile t = iter.next();
+            if(!visible.contains(t.tx, t.ty))
+                iter.remove();
+        }
+        return changed;
+    }
+
+    /**
+     * Draws the view into the given area of the window.
+     */
+    public void paint(Graphics2D g, Rectangle clip) {
+        g.setColor(Color.WHITE);
+        g.fill(clip);
+
+        if(oldTiles != null) {
+            double scale = zoom / oldZoom;
+            for(Tile tile : oldTiles.values()) {
+                Rectangle bounds = new Rectangle2D.Double(
+                    (tile.tx * TILE_SIZE / oldZoom - originX) * zoom,
+                    (tile.ty * TILE_SIZE / oldZoom - originY) * zoom,
+                    TILE_SIZE * scale,
+                    TILE_SIZE * scale).getBounds();
+                if(bounds.intersects(clip))
+                    g.drawImage(tile.image, bounds.x, bounds.y, bounds.width, bounds.height, null);
+            }
+        }
+
+        int scrollX = getScrollX(), scrollY = getScrollY();
+        for(Tile tile : tiles.values()) {
+            int x = tile.tx * TILE_SIZE - scrollX, y = tile.ty * TILE_SIZE - scrollY;
+            if(clip.intersects(x, y, TILE_SIZE, TILE_SIZE))
+                g.drawImage(tile.image, x, y, null);
+        }
+    }
+
+    /**
+     * The transform from paper coordinates to window coordinates.
+     */
+    public AffineTransform getPaperToWindow() {
+        AffineTransform transform = AffineTransform.getTranslateInstance(-getScrollX(), -getScrollY());
+        transform.scale(zoom, zoom);
+        return transform;
+    }
+
+    /**
+     * Stops the rendering threads. The view cannot be used afterward.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // ------ Tiles ------
+
+    /**
+     * The window's top left in zoomed pixels, rounded so that tiles line up with whole pixels.
+     */
+    private int getScrollX() {
+        return (int) Math.round(originX * zoom);
+    }
+
+    private int getScrollY() {
+        return (int) Math.round(originY * zoom);
+    }
+
+    private Rectangle getVisibleTiles() {
+        int scrollX = getScrollX(), scrollY = getScrollY();
+        int tx0 = scrollX >> TILE_SHIFT, ty0 = scrollY >> TILE_SHIFT;
+        int tx1 = (scrollX + width - 1) >> TILE_SHIFT, ty1 = (scrollY + height - 1) >> TILE_SHIFT;
+        return new Rectangle(tx0, ty0, tx1 - tx0 + 1, ty1 - ty0 + 1);
+    }
+
+    private static long tileKey(int tx, int ty) {
+        return ((long) tx << 32) | (ty & 0xFFFFFFFFL);
+    }
+    
+    /**
+     * Draws the segments with numbers from start up to but not including end onto the tiles.
+     * Each segment is read once and handed to the tiles its bounds touch, so the work grows
+     * with the number of new segments, not with the number of tiles times that.
+     */
+    private void drawNewSegments(int start, int end) {
+        if(tiles.isEmpty())
+            return;
+        int minTx = Integer.MAX_VALUE, minTy = Integer.MAX_VALUE, maxTx = Integer.MIN_VALUE, maxTy = Integer.MIN_VALUE;
+        for(Tile tile : tiles.values()) {
+            minTx = Math.min(minTx, tile.tx);
+            minTy = Math.min(minTy, tile.ty);
+            maxTx = Math.max(maxTx, tile.tx);
+            maxTy = Math.max(maxTy, tile.ty);
+        }
+        
+        int[] block = new int[BLOCK_SIZE];
+        float[] coords = new float[BLOCK_SIZE * 4], penWidths = new float[BLOCK_SIZE];
+        int[] colors = new int[BLOCK_SIZE];
+        for(int blockStart = start; blockStart < end; blockStart += BLOCK_SIZE) {
+            int count = Math.min(BLOCK_SIZE, end - blockStart);
+            for(int n = 0; n < count; n++)
+                block[n] = blockStart + n;
+            index.readSegments(block, 0, count, coords, penWidths, colors);
+            for(int n = 0; n < count; n++) {
+                float x0 = coords[n * 4], y0 = coords[n * 4 + 1], x1 = coords[n * 4 + 2], y1 = coords[n * 4 + 3];
+                if(Float.isNaN(x0))
+                    continue;  // cleared meanwhile
+                double margin = (penWidths[n] / 2 + 1 / zoom) * zoom;  // in zoomed pixels, as in VectorRenderer.widen()
+                int tx0 = Math.max(minTx, tileIndex(Math.min(x0, x1) * zoom - margin)),
+                    tx1 = Math.min(maxTx, tileIndex(Math.max(x0, x1) * zoom + margin)),
+                    ty0 = Math.max(minTy, tileIndex(Math.min(y0, y1) * zoom - margin)),
+                    ty1 = Math.min(maxTy, tileIndex(Math.max(y0, y1) * zoom + margin));
+                for(int ty = ty0; ty <= ty1; ty++)
+                    for(int tx = tx0; tx <= tx1; tx++) {
+                        Tile tile = tiles.get(tileKey(tx, ty));
+                        if(tile != null)
+                            tile.addPending(block[n]);
+                    }
+            }
+        }
+        
+        for(Tile tile : tiles.values())
+            tile.drawPending();
+    }
+    
+    /**
+     * The tile column or row holding the given zoomed pixel coordinate.
+     */
+    private static int tileIndex(double pixel) {
+        double clamped = Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.floor(pixel)));
+        return (int) clamped >> TILE_SHIFT;
+    }
+
+    /**
+     * One tile of the view: the zoomed pixels from (tx, ty) * TILE_SIZE to the next tile over.
+     */
+    private class Tile {
+        private final int tx, ty;
+        private final double zoom;
+        private final int generation;
+        private final int segmentCount;  // segments in the index when the tile was requested
+        private final BufferedImage image;
+        private final Graphics2D graphics;
+        private int[] pending = new int[16];  // new segments to draw on the next drawPending()
+        private int pendingCount;
+
+        Tile(int tx, int ty, double zoom, int generation, int segmentCount) {
+            this.tx = tx;
+            this.ty = ty;
+            this.zoom = zoom;
+            this.generation = generation;
+            this.segmentCount = segmentCount;
+            image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+            graphics = image.createGraphics();
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+            TurtlePaper.enableAntialiasing(graphics);
+            graphics.translate(-tx * TILE_SIZE, -ty * TILE_SIZE);
+            graphics.scale(zoom, zoom);
+        }
+
+        long key() {
+            return tileKey(tx, ty);
+        }
+
+        /**
+         * The part of the paper this tile shows.
+         */
+        Rectangle2D getArea() {
+            return new Rectangle2D.Double(tx * TILE_SIZE / zoom, ty * TILE_SIZE / zoom, TILE_SIZE / zoom, TILE_SIZE / zoom);
+        }
+
+        void addPending(int segment) {
+            if(pendingCount == pending.length)
+                pending = Arrays.copyOf(pending, pendingCount * 2);
+            pending[pendingCount++] = segment;
+        }
+        
+        void drawPending() {
+            if(pendingCount > 0) {
+                renderer.draw(graphics, getArea(), zoom, pending, pendingCount);
+                pendingCount = 0;
+            }
+        }
+        
+        /**
+         * Draws the segments in its area drawn since rendering began, up to but not including
+         * the given segment; segments before that are drawn by the RenderTask.
+         */
+        void catchUp(int end) {
+            int[] segments = index.getSegments(renderer.widen(getArea(), zoom));
+            int from = lowerBound(segments, segmentCount), to = lowerBound(segments, end);
+            if(from < to)
+                renderer.draw(graphics, getArea(), zoom, Arrays.copyOfRange(segments, from, to), to - from);
+        }
+    }
+
+    /**
+     * The position of the first element of the sorted array that is at least the given value.
+     */
+    private static int lowerBound(int[] sorted, int value) {
+        int position = Arrays.binarySearch(sorted, value);
+        return position >= 0 ? position : -position - 1;
+    }
+    
+    private class RenderTask implements Runnable {
+        private final Tile tile;
+
+        RenderTask(Tile tile) {
+            this.tile = tile;
+        }
+
+        public void run() {
+            if(tile.generation != generation)
+                return;  // zoomed or cleared since this was requested
+            int[] segments = index.getSegments(renderer.widen(tile.getArea(), tile.zoom));
+            int count = segments.length;
+            while(count > 0 && segments[count - 1] >= tile.segmentCount)
+                count--;  // newer segments are drawn by update()
+            renderer.draw(tile.graphics, tile.getArea(), tile.zoom, segments, count);
+            renderedTiles.add(tile);
+        }
+    }
+}
@@ -12,4 +12,12 @@ public class ConstantGeneratorTest {
         assertEquals(0.739, gen.next(), 0);
         assertEquals(0.739, gen.next(), 0);
     }
+
+    @Test
+    public void fillsArray() {
+        ConstantGenerator gen = new ConstantGenerator(0.739);
+        double[] values = new double[4];
+        gen.next(values, 1, 2);
+        assertArrayEquals(new double[] { 0, 0.739, 0.739, 0 }, values, 0);
+    }
 }
@@ -26,4 +26,57 @@ public class PrimeGeneratorTest {
         PrimeGenerator gen = new PrimeGenerator(-100);
         assertEquals(2, gen.next(), 0.0001);
     }
+
+    @Test
+    public void matchesTrialDivision() {
+        PrimeGenerator gen = new PrimeGenerator(0);
+        for(int n = 2; n < 200000; n++)
+            if(isPrime(n))
+                assertEquals(n, gen.next(), 0);
+    }
+
+    @Test
+    public void skipSkipsPrimes() {
+        PrimeGenerator gen = new PrimeGenerator(2);
+        gen.skip(3);
+        assertEquals(7, gen.next(), 0.0001);
+        gen.skip(1);
+        assertEquals(13, gen.next(), 0.0001);
+    }
+
+    @Test
+    public void skipMatchesNext() {
+        PrimeGenerator skipper = new PrimeGenerator(1000);
+        PrimeGenerator stepper = new PrimeGenerator(1000);
+        for(int skipSize : new int[] { 0, 1, 5, 6000, 17, 40000, 2 }) {
+            skipper.skip(skipSize);
+            for(int n = 0; n < skipSize; n++)
+                stepper.next();
+            assertEquals(stepper.next(), skipper.next(), 0);
+        }
+    }
+
+    @Test
+    public void fillsArrayLikeNext() {
+        PrimeGenerator bulk = new PrimeGenerator(60000);
+        PrimeGenerator single = new PrimeGenerator(60000);
+        double[] values = new double[10000];
+        bulk.next(values, 0, values.length);
+        for(double value : values)
+            assertEquals(single.next(), value, 0);
+    }
+
+    @Test
+    public void handlesLargeStart() {
+        PrimeGenerator gen = new PrimeGenerator(100000000);
+        assertEquals(100000007, gen.next(), 0.0001);
+        assertEquals(100000037, gen.next(), 0.0001);
+    }
+
+    private static boolean isPrime(int n) {
+        for(int i = 2; i * i <= n; i++)
+            if(n % i == 0)
+                return false;
+        return true;
+    }
 }
@@ -26,4 +26,41 @@ public class SineGeneratorTest {
         assertEquals(Math.sin(0.8) * 1.5, gen.next(), 0.000001);
         assertEquals(Math.sin(1.1) * 1.5, gen.next(), 0.000001);
     }
+
+    @Test
+    public void fillsArrayLikeNext() {
+        SineGenerator bulk = new SineGenerator(
+            new SineGenerator(0, 0.0004, 5),
+            new ConstantGenerator(180));
+        SineGenerator single = new SineGenerator(
+            new SineGenerator(0, 0.0004, 5),
+            new ConstantGenerator(180));
+        double[] values = new double[1000];
+        bulk.next(values, 0, 600);
+        bulk.next(values, 600, 400);
+        for(double value : values)
+            assertEquals(single.next(), value, 0);
+    }
+
+    @Test
+    public void skipsChildren() {
+        SineGenerator gen = new SineGenerator(0.5, 0.3, 1.5);
+        gen.skip(2);
+        assertEquals(Math.sin(1.1) * 1.5, gen.next(), 0.000001);
+    }
+
+    @Test
+    public void skipIsCheapOnlyIfChildrenAre() {
+        assertTrue(new SineGenerator(0.5, 0.3, 1.5).isSkipCheap());
+        assertTrue(new SineGenerator(
+            new SineGenerator(0, 0.0004, 5),
+            new ConstantGenerator(180)).isSkipCheap());
+        assertFalse(new SineGenerator(
+            new SteppingGenerator(0, 1),
+            new Generator() {
+                public double next() {
+                    return 1;
+                }
+            }).isSkipCheap());
+    }
 }
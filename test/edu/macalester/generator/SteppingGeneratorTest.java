@@ -19,4 +19,48 @@ public class SteppingGeneratorTest {
         assertEquals(9, gen.next(), 0.00001);
         assertEquals(16, gen.next(), 0.00001);
     }
+
+    @Test
+    public void fillsArray() {
+        SteppingGenerator gen = new SteppingGenerator(2, 7);
+        double[] values = new double[5];
+        gen.next(values, 1, 3);
+        assertArrayEquals(new double[] { 0, 2, 9, 16, 0 }, values, 0);
+        assertEquals(23, gen.next(), 0);
+    }
+
+    @Test
+    public void fillsArrayLikeNext() {
+        SteppingGenerator bulk = new SteppingGenerator(0.1, 0.0003);
+        SteppingGenerator single = new SteppingGenerator(0.1, 0.0003);
+        double[] values = new double[3000];
+        for(int round = 0; round < 100; round++) {
+            bulk.next(values, 0, values.length);
+            for(double value : values)
+                assertEquals(single.next(), value, 0);
+            assertEquals(single.next(), bulk.next(), 0);  // interleaving stays in step
+        }
+    }
+
+    @Test
+    public void skipsArithmetically() {
+        SteppingGenerator gen = new SteppingGenerator(2, 7);
+        assertTrue(gen.isSkipCheap());
+        gen.skip(1000);
+        assertEquals(7002, gen.next(), 0);
+        gen.skip(0);
+        assertEquals(7009, gen.next(), 0);
+    }
+
+    @Test
+    public void skipMatchesNext() {
+        SteppingGenerator skipping = new SteppingGenerator(0.1, 0.0003);
+        SteppingGenerator stepping = new SteppingGenerator(0.1, 0.0003);
+        for(int n = 0; n < 1000; n++) {
+            skipping.skip(n % 7);
+            for(int k = 0; k < n % 7; k++)
+                stepping.next();
+            assertEquals(stepping.next(), skipping.next(), 0);
+        }
+    }
 }
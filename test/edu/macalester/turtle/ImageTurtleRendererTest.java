@@ -0,0 +1,67 @@
+package edu.macalester.turtle;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class ImageTurtleRendererTest {
+    @Test
+    public void writesSegmentsToPNG() throws IOException {
+        checkDrawing(false);
+    }
+
+    @Test
+    public void writesBatchedSegmentsToPNG() throws IOException {
+        checkDrawing(true);
+    }
+
+    private static void checkDrawing(boolean batchedDrawing) throws IOException {
+        ImageTurtleRenderer renderer = new ImageTurtleRenderer(100, 80);
+        renderer.setBatchedDrawing(batchedDrawing);
+        Turtle turtle = new Turtle(10, 20, Color.BLACK);
+        renderer.add(turtle);
+        turtle.setStepSize(1);
+        turtle.setPenWidth(3);
+        turtle.setDirection(0);
+        turtle.forward(30);    // (10,20) to (40,20) in black
+        turtle.penUp();
+        turtle.forward(20);    // gap to (60,20)
+        turtle.penDown();
+        turtle.setColor(Color.RED);
+        turtle.forward(30);    // (60,20) to (90,20) in red
+        turtle.right(90);
+        turtle.forward(40);    // (90,20) to (90,60) in red
+        turtle.setX(10);       // moves without drawing
+        turtle.setY(60);
+        turtle.setColor(Color.BLUE);
+        turtle.execute(
+            new byte[] { Turtle.FORWARD, Turtle.PEN_UP, Turtle.FORWARD, Turtle.PEN_DOWN, Turtle.FORWARD },
+            new double[] { 10, 0, 20, 0, 10 }, 0, 5);  // (10,60) to (10,70) and (10,90) off the image
+
+        File file = File.createTempFile("turtle-test", ".png");
+        try {
+            renderer.writePNG(file.getPath());
+            BufferedImage image = ImageIO.read(file);
+            assertEquals(100, image.getWidth());
+            assertEquals(80, image.getHeight());
+
+            assertEquals(Color.BLACK.getRGB(), image.getRGB(25, 20));
+            assertEquals(Color.WHITE.getRGB(), image.getRGB(50, 20));   // pen up
+            assertEquals(Color.RED.getRGB(),   image.getRGB(75, 20));
+            assertEquals(Color.RED.getRGB(),   image.getRGB(90, 40));
+            assertEquals(Color.BLUE.getRGB(),  image.getRGB(10, 65));
+            assertEquals(Color.WHITE.getRGB(), image.getRGB(10, 75));   // pen up within execute()
+            assertEquals(Color.WHITE.getRGB(), image.getRGB(50, 40));
+            assertEquals(Color.WHITE.getRGB(), image.getRGB(25, 25));   // beside the line
+        } finally {
+            file.delete();
+        }
+    }
+}
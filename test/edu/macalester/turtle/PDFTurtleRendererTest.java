@@ -0,0 +1,169 @@
+package edu.macalester.turtle;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.itextpdf.text.pdf.PRStream;
+import com.itextpdf.text.pdf.PRTokeniser;
+import com.itextpdf.text.pdf.PdfContentParser;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfNumber;
+import com.itextpdf.text.pdf.PdfObject;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
+import com.itextpdf.text.pdf.parser.ContentByteUtils;
+
+public class PDFTurtleRendererTest {
+    /**
+     * iText writes numbers to two decimal places, which is within this of the coordinates drawn,
+     * and within this times 255 of each color channel.
+     */
+    private static final double PRECISION = 0.0051;
+
+    @Test
+    public void writesSameSegmentsAsDrawn() throws IOException {
+        File file = File.createTempFile("turtle-test", ".pdf");
+        try {
+            PDFTurtleRenderer renderer = new PDFTurtleRenderer(file.getPath(), 600, 600);
+            SegmentRecorder expected = new SegmentRecorder();
+            Turtle turtle = new Turtle(300, 300);
+            turtle.setStepSize(1);
+            renderer.add(turtle);
+            turtle.addObserver(expected);
+
+            Random rand = new Random(3);
+            for(int n = 0; n < 25000; n++) {  // enough for several chunks
+                if(n % 3000 == 0)
+                    turtle.setColor(new Color(rand.nextInt(0x1000000)));
+                if(n % 7000 == 0)
+                    turtle.setPenWidth(1 + n / 7000);
+                if(n % 500 == 0)
+                    turtle.penUp();
+                turtle.forward(rand.nextDouble() * 10);
+                turtle.right(rand.nextDouble() * 40 - 20);
+                turtle.penDown();
+                if(Math.hypot(turtle.getX() - 300, turtle.getY() - 300) > 250)
+                    turtle.setDirection(Math.toDegrees(Math.atan2(300 - turtle.getY(), 300 - turtle.getX())));
+                if(n % 4000 == 0)
+                    turtle.execute(
+                        new byte[] { Turtle.FORWARD, Turtle.RIGHT, Turtle.FORWARD, Turtle.PEN_UP, Turtle.FORWARD, Turtle.PEN_DOWN, Turtle.FORWARD },
+                        new double[] { 3, 90, 3, 0, 3, 0, 3 }, 0, 7);
+            }
+            renderer.close();
+
+            SegmentRecorder written = new SegmentRecorder();
+            int strokes = readStrokes(file, written);
+            assertEquals(expected.segments.size(), written.segments.size());
+            for(int n = 0; n < expected.segments.size(); n++) {
+                double[] e = expected.segments.get(n), w = written.segments.get(n);
+                for(int i = 0; i < e.length; i++)
+                    assertEquals(e[i], w[i], i >= 4 && i < 7 ? PRECISION * 255 : PRECISION);
+            }
+            assertTrue(strokes < expected.segments.size() / 10);  // the segments were coalesced into paths
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Records each segment as x0, y0, x1, y1, red, green, blue and pen width.
+     */
+    private static class SegmentRecorder implements TurtlePathObserver {
+        private final List<double[]> segments = new ArrayList<double[]>();
+
+        void add(Color color, double penWidth, double x0, double y0, double x1, double y1) {
+            segments.add(new double[] { x0, y0, x1, y1, color.getRed(), color.getGreen(), color.getBlue(), penWidth });
+        }
+
+        @Override
+        public void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) {
+            if(turtle.isPenDown())
+                add(turtle.getColor(), turtle.getPenWidth(), x0, y0, x1, y1);
+        }
+
+        @Override
+        public void turtleDrewPath(Turtle turtle, PenStyle pen, double[] points, int pointCount) {
+            for(int n = 1; n < pointCount; n++)
+                add(pen.getColor(), pen.getWidth(), points[n * 2 - 2], points[n * 2 - 1], points[n * 2], points[n * 2 + 1]);
+        }
+
+        @Override
+        public void turtleTurned(Turtle turtle, double oldDir, double newDir) { }
+
+        @Override
+        public void turtleChanged(Turtle turtle) { }
+    }
+
+    /**
+     * Reads back every stroked line on the first page, in order, including those in form XObjects
+     * the page draws. Returns the number of stroke operations.
+     */
+    private static int readStrokes(File file, SegmentRecorder out) throws IOException {
+        PdfReader reader = new PdfReader(file.getPath());
+        try {
+            PdfDictionary xObjects = reader.getPageN(1).getAsDict(PdfName.RESOURCES).getAsDict(PdfName.XOBJECT);
+            List<byte[]> contents = new ArrayList<byte[]>();
+            for(PdfObject name : parse(ContentByteUtils.getContentBytesForPage(reader, 1), "Do"))
+                contents.add(PdfReader.getStreamBytes((PRStream) xObjects.getAsStream((PdfName) name)));
+
+            int strokes = 0;
+            for(byte[] content : contents) {
+                Color color = Color.BLACK;
+                double penWidth = 1, x = 0, y = 0;
+                List<double[]> path = new ArrayList<double[]>();
+                PdfContentParser parser = new PdfContentParser(new PRTokeniser(new RandomAccessFileOrArray(content)));
+                ArrayList<PdfObject> operands = new ArrayList<PdfObject>();
+                while(!parser.parse(operands).isEmpty()) {
+                    String operator = operands.get(operands.size() - 1).toString();
+                    if(operator.equals("RG"))
+                        color = new Color((float) number(operands, 0), (float) number(operands, 1), (float) number(operands, 2));
+                    else if(operator.equals("w"))
+                        penWidth = number(operands, 0);
+                    else if(operator.equals("m")) {
+                        x = number(operands, 0);
+                        y = number(operands, 1);
+                    } else if(operator.equals("l")) {
+                        path.add(new double[] { x, y, number(operands, 0), number(operands, 1) });
+                        x = number(operands, 0);
+                        y = number(operands, 1);
+                    } else if(operator.equals("S")) {
+                        for(double[] line : path)
+                            out.add(color, penWidth, line[0], line[1], line[2], line[3]);
+                        path.clear();
+                        strokes++;
+                    }
+                }
+                assertTrue(path.isEmpty());
+            }
+            return strokes;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns the operand of each use of the given one-operand operator.
+     */
+    private static List<PdfObject> parse(byte[] content, String operator) throws IOException {
+        List<PdfObject> result = new ArrayList<PdfObject>();
+        PdfContentParser parser = new PdfContentParser(new PRTokeniser(new RandomAccessFileOrArray(content)));
+        ArrayList<PdfObject> operands = new ArrayList<PdfObject>();
+        while(!parser.parse(operands).isEmpty())
+            if(operands.get(operands.size() - 1).toString().equals(operator))
+                result.add(operands.get(0));
+        return result;
+    }
+
+    private static double number(List<PdfObject> operands, int index) {
+        return ((PdfNumber) operands.get(index)).doubleValue();
+    }
+}
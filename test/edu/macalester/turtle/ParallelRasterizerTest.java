@@ -0,0 +1,91 @@
+package edu.macalester.turtle;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ParallelRasterizerTest {
+    private static final int SIZE = 300;
+    
+    /**
+     * Layers are composited in 8 bits per channel, so overlapping translucent strokes from
+     * different layers can round differently from drawing them directly; this pins how much.
+     */
+    private static final int MAX_CHANNEL_DIFFERENCE = 5;
+    
+    @Test
+    public void matchesDrawingInOrder() {
+        ParallelRasterizer rasterizer = new ParallelRasterizer(SIZE, SIZE, 4);
+        try {
+            TurtlePaper parallel = new TurtlePaper(SIZE, SIZE), sequential = new TurtlePaper(SIZE, SIZE);
+            List<SegmentBatch> batches = createBatches(new Random(17));
+            for(SegmentBatch batch : batches)
+                batch.drawTo(sequential.getGraphics());
+            rasterizer.draw(batches, parallel);
+            
+            assertTrue(maxChannelDifference(parallel.getImage(), sequential.getImage()) <= MAX_CHANNEL_DIFFERENCE);
+            for(SegmentBatch batch : batches)
+                assertTrue(batch.isEmpty());
+        } finally {
+            rasterizer.shutdown();
+        }
+    }
+    
+    @Test
+    public void clearsBatchesWhenInterrupted() {
+        ParallelRasterizer rasterizer = new ParallelRasterizer(SIZE, SIZE, 4);
+        try {
+            List<SegmentBatch> batches = createBatches(new Random(17));
+            Thread.currentThread().interrupt();
+            rasterizer.draw(batches, new TurtlePaper(SIZE, SIZE));
+            assertTrue(Thread.interrupted());
+            for(SegmentBatch batch : batches)
+                assertTrue(batch.isEmpty());
+            
+            // Nothing left over from the interrupted round shows up in the next one
+            TurtlePaper paper = new TurtlePaper(SIZE, SIZE);
+            rasterizer.draw(batches, paper);
+            BufferedImage image = paper.getImage();
+            for(int y = 0; y < SIZE; y++)
+                for(int x = 0; x < SIZE; x++)
+                    assertEquals(Color.WHITE.getRGB(), image.getRGB(x, y));
+        } finally {
+            rasterizer.shutdown();
+        }
+    }
+    
+    private static List<SegmentBatch> createBatches(Random random) {
+        List<SegmentBatch> batches = new ArrayList<SegmentBatch>();
+        for(int b = 0; b < 16; b++) {
+            SegmentBatch batch = new SegmentBatch();
+            Color color = new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256), b % 2 == 0 ? 255 : 60);
+            double x = random.nextInt(SIZE), y = random.nextInt(SIZE);
+            for(int n = 0; n < 300; n++) {
+                double x1 = Math.max(0, Math.min(SIZE, x + random.nextGaussian() * 20));
+                double y1 = Math.max(0, Math.min(SIZE, y + random.nextGaussian() * 20));
+                batch.add(color, 1 + b % 3, x, y, x1, y1);
+                x = x1;
+                y = y1;
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+    
+    private static int maxChannelDifference(BufferedImage a, BufferedImage b) {
+        int max = 0;
+        for(int y = 0; y < a.getHeight(); y++)
+            for(int x = 0; x < a.getWidth(); x++) {
+                int p = a.getRGB(x, y), q = b.getRGB(x, y);
+                for(int shift = 0; shift < 24; shift += 8)
+                    max = Math.max(max, Math.abs((p >> shift & 0xFF) - (q >> shift & 0xFF)));
+            }
+        return max;
+    }
+}
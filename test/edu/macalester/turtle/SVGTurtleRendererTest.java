@@ -0,0 +1,78 @@
+package edu.macalester.turtle;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+public class SVGTurtleRendererTest {
+    @Test
+    public void writesRelativePaths() throws IOException {
+        File file = File.createTempFile("turtle-test", ".svg");
+        try {
+            SVGTurtleRenderer renderer = new SVGTurtleRenderer(file.getPath(), 200, 100.5);
+            Turtle turtle = new Turtle(10, 20);
+            turtle.setStepSize(1);
+            renderer.add(turtle);
+            turtle.forward(2);
+            turtle.right(90);
+            turtle.forward(1.5);
+            turtle.right(90);
+            turtle.forward(3.25);
+            turtle.penUp();
+            turtle.forward(1);
+            turtle.penDown();
+            turtle.forward(1);
+            turtle.setColor(new Color(255, 0, 0, 51));
+            turtle.setPenWidth(2);
+            turtle.forward(1);
+            renderer.close();
+            turtle.forward(1);  // no longer observed
+            
+            assertEquals(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"200\" height=\"100.5\" viewBox=\"0 0 200 100.5\">\n"
+                + "<g fill=\"none\" stroke-linecap=\"round\" stroke-linejoin=\"round\">\n"
+                + "<path stroke=\"#000000\" stroke-width=\"1\" d=\"M10 20l2 0 0 1.5-3.25 0m-1 0-1 0\"/>\n"
+                + "<path stroke=\"#ff0000\" stroke-opacity=\".2\" stroke-width=\"2\" d=\"M6.75 21.5l-1 0\"/>\n"
+                + "</g>\n</svg>\n",
+                read(file));
+        } finally {
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void writesExecutedPaths() throws IOException {
+        File file = File.createTempFile("turtle-test", ".svg");
+        try {
+            SVGTurtleRenderer renderer = new SVGTurtleRenderer(file.getPath(), 100, 100);
+            Turtle turtle = new Turtle(0, 0);
+            turtle.setStepSize(1);
+            renderer.add(turtle);
+            turtle.execute(
+                new byte[] { Turtle.FORWARD, Turtle.LEFT, Turtle.FORWARD, Turtle.FORWARD },
+                new double[] { 0.005, 90, 1, 1 }, 0, 4);
+            renderer.close();
+            
+            assertTrue(read(file).contains(" d=\"M0 0l.01 0 0-1 0-1\"/>"));
+        } finally {
+            file.delete();
+        }
+    }
+    
+    private static String read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
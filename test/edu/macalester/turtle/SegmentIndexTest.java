@@ -0,0 +1,87 @@
+package edu.macalester.turtle;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class SegmentIndexTest {
+    @Test
+    public void findsSameSegmentsAsBruteForce() {
+        SegmentIndex index = new SegmentIndex(16);
+        Turtle turtle = new Turtle(0, 0, Color.BLACK);
+        index.add(turtle);
+        Random rand = new Random(1);
+        for(int n = 0; n < 20000; n++) {
+            turtle.right(rand.nextDouble() * 360);
+            turtle.forward(rand.nextDouble() * (n % 100 == 0 ? 2000 : 20));  // a few long segments
+        }
+        assertEquals(20000, index.getSegmentCount());
+
+        for(int q = 0; q < 200; q++) {
+            Rectangle2D area = new Rectangle2D.Double(
+                rand.nextGaussian() * 300, rand.nextGaussian() * 300,
+                rand.nextDouble() * (q % 10 == 0 ? 5000 : 50), rand.nextDouble() * 50);
+            assertArrayEquals(bruteForce(index, area), index.getSegments(area));
+        }
+    }
+
+    @Test
+    public void findsNearestSegment() {
+        SegmentIndex index = new SegmentIndex();
+        Turtle turtle = new Turtle(100, 100, Color.RED);
+        index.add(turtle);
+        turtle.setStepSize(1);
+        turtle.setDirection(0);
+        turtle.forward(100);   // 0: (100,100) to (200,100)
+        turtle.penUp();
+        turtle.forward(100);   // not drawn
+        turtle.penDown();
+        turtle.right(90);
+        turtle.forward(100);   // 1: (300,100) to (300,200)
+
+        assertEquals(2, index.getSegmentCount());
+        assertEquals(0, index.getNearestSegment(150, 103, 5));
+        assertEquals(1, index.getNearestSegment(296, 150, 5));
+        assertEquals(-1, index.getNearestSegment(250, 100, 5));
+        assertEquals(Color.RED, index.getColor(1));
+        assertSame(turtle, index.getTurtle(1));
+        assertEquals(300, index.getSegment(1).getX2(), 1e-3);
+    }
+
+    @Test
+    public void findsTurtlesInArea() {
+        SegmentIndex index = new SegmentIndex();
+        Turtle left = new Turtle(0, 0, Color.RED), right = new Turtle(1000, 0, Color.BLUE);
+        index.add(left);
+        index.add(right);
+        left.setStepSize(1);
+        right.setStepSize(1);
+        left.setDirection(90);
+        right.setDirection(90);
+        left.forward(100);
+        right.forward(100);
+
+        Set<Turtle> found = index.getTurtles(new Rectangle2D.Double(-10, 40, 20, 20));
+        assertEquals(1, found.size());
+        assertTrue(found.contains(left));
+        assertEquals(2, index.getTurtles(new Rectangle2D.Double(-10, 40, 2000, 20)).size());
+    }
+
+    private static int[] bruteForce(SegmentIndex index, Rectangle2D area) {
+        int[] found = new int[index.getSegmentCount()];
+        int count = 0;
+        for(int n = 0; n < index.getSegmentCount(); n++) {
+            Line2D segment = index.getSegment(n);
+            if(area.intersectsLine(segment))
+                found[count++] = n;
+        }
+        return Arrays.copyOf(found, count);
+    }
+}
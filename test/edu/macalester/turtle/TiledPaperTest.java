@@ -0,0 +1,158 @@
+package edu.macalester.turtle;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+public class TiledPaperTest {
+    @Test
+    public void createsTilesOnlyWhereDrawn() {
+        TiledPaper paper = new TiledPaper();
+        assertNull(paper.getInkBounds());
+
+        paper.drawSegment(Color.BLACK, 2, -100000, 50000, -99990, 50000);
+        paper.drawSegment(Color.BLACK, 2, 3000000, 10, 3000000, 20);
+        assertEquals(2, paper.getTileCount());
+
+        BufferedImage image = paper.getImage(new Rectangle(-100010, 49990, 30, 20));
+        assertEquals(Color.BLACK.getRGB(), image.getRGB(15, 10));
+        assertEquals(Color.WHITE.getRGB(), image.getRGB(15, 2));
+
+        Rectangle ink = paper.getInkBounds();
+        assertTrue(ink.contains(-100000, 50000));
+        assertTrue(ink.contains(3000000, 20));
+    }
+
+    @Test
+    public void spillsAndRestoresTiles() throws IOException {
+        File spillFile = File.createTempFile("tiles", ".bin");
+        TiledPaper paper = new TiledPaper(spillFile.getPath(), 2);
+
+        for(int n = 0; n < 100; n++)
+            paper.drawSegment(Color.RED, 3, n * 1024 + 10, 100, n * 1024 + 60, 100);  // one tile each
+        paper.drawSegment(Color.BLUE, 3, 10, 200, 60, 200);  // reloads the first tile
+        assertEquals(100, paper.getTileCount());
+        assertTrue(paper.getResidentTileCount() <= 3);
+
+        for(int n = 0; n < 100; n += 11) {
+            BufferedImage image = paper.getImage(new Rectangle(n * 1024, 0, 70, 300));
+            assertEquals(Color.RED.getRGB(), image.getRGB(35, 100));
+            assertEquals(Color.WHITE.getRGB(), image.getRGB(35, 150));
+            if(n == 0)
+                assertEquals(Color.BLUE.getRGB(), image.getRGB(35, 200));
+        }
+
+        paper.close();
+        assertFalse(spillFile.exists());
+    }
+
+    @Test
+    public void createsOnlyTilesTheStrokeCrosses() throws IOException {
+        File spillFile = File.createTempFile("tiles", ".bin");
+        TiledPaper paper = new TiledPaper(spillFile.getPath(), 16);
+        try {
+            paper.drawSegment(Color.BLACK, 3, 0, 0, 5000, 5000);
+            assertTrue(paper.getTileCount() <= 3 * 21);  // at most three per row of tiles, not the 21 x 21 bounding box
+            assertTrue(paper.getResidentTileCount() <= 16);
+            assertEquals(Color.BLACK.getRGB(), paper.getImage(new Rectangle(4000, 4000, 1, 1)).getRGB(0, 0));
+        } finally {
+            paper.close();
+        }
+    }
+
+    @Test
+    public void drawsSegmentsLikeOrdinaryPaper() {
+        TiledPaper tiled = new TiledPaper();
+        TurtlePaper plain = new TurtlePaper(1200, 900);
+        Color translucent = new Color(0, 128, 255, 100);
+        tiled.drawSegment(Color.RED, 3, 10, 20, 1150, 870);
+        plain.drawSegment(Color.RED, 3, 10, 20, 1150, 870);
+        tiled.drawSegment(translucent, 7, 1100, 30, 40, 700);
+        plain.drawSegment(translucent, 7, 1100, 30, 40, 700);
+        assertSameImage(plain.getImage(), tiled.getImage(new Rectangle(0, 0, 1200, 900)));
+    }
+
+    @Test
+    public void splitsBatchesIntoTiles() throws IOException {
+        SegmentBatch batch = new SegmentBatch();
+        Color translucent = new Color(0, 128, 255, 100);
+        double x = 20, y = 20;
+        for(int n = 0; n < 200; n++) {  // a zigzag across the paper, overlapping itself at the joins
+            double nextX = 20 + (n % 2 == 0 ? 1150 : 0), nextY = y + 4;
+            batch.add(n < 100 ? Color.BLACK : translucent, 5, x, y, nextX, nextY);
+            x = nextX;
+            y = nextY;
+        }
+        batch.add(Color.RED, 2, 600, 10, 610, 880);  // a new run, apart from the last
+
+        TurtlePaper plain = new TurtlePaper(1200, 900);
+        batch.drawTo(plain.getGraphics());
+        File spillFile = File.createTempFile("tiles", ".bin");
+        TiledPaper tiled = new TiledPaper(spillFile.getPath(), 4);
+        try {
+            batch.drawTo(tiled);
+            assertTrue(tiled.getResidentTileCount() <= 4);
+            assertSameImage(plain.getImage(), tiled.getImage(new Rectangle(0, 0, 1200, 900)));
+        } finally {
+            tiled.close();
+        }
+
+        TiledPaper diagonal = new TiledPaper();
+        SegmentBatch line = new SegmentBatch();
+        for(int n = 0; n < 50; n++)
+            line.add(Color.BLACK, 1, n * 100, n * 100, n * 100 + 100, n * 100 + 100);
+        line.drawTo(diagonal);
+        assertTrue(diagonal.getTileCount() <= 3 * 21);
+    }
+
+    @Test
+    public void clearsEverything() {
+        TiledPaper paper = new TiledPaper();
+        paper.drawSegment(Color.BLACK, 1, 0, 0, 1000, 1000);
+        paper.clear();
+        assertEquals(0, paper.getTileCount());
+        assertNull(paper.getInkBounds());
+        assertEquals(Color.WHITE.getRGB(), paper.getImage(new Rectangle(500, 500, 1, 1)).getRGB(0, 0));
+    }
+
+    @Test
+    public void writesPNGInStrips() throws IOException {
+        TiledPaper paper = new TiledPaper();
+        paper.drawSegment(Color.RED, 3, -300, -200, 500, 700);
+        paper.drawSegment(new Color(0, 128, 255, 100), 5, 480, -150, -250, 650);
+        Rectangle ink = paper.getInkBounds();
+        BufferedImage expected = paper.getImage(ink);
+
+        File file = File.createTempFile("tiles", ".png");
+        try {
+            paper.writePNG(file.getPath());
+            BufferedImage written = ImageIO.read(file);
+            assertEquals(ink.width, written.getWidth());
+            assertEquals(ink.height, written.getHeight());
+            for(int y = 0; y < ink.height; y++)
+                for(int x = 0; x < ink.width; x++)
+                    assertEquals(expected.getRGB(x, y), written.getRGB(x, y));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertSameImage(BufferedImage expected, BufferedImage actual) {
+        for(int y = 0; y < expected.getHeight(); y++)
+            for(int x = 0; x < expected.getWidth(); x++)
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsImagesTooLargeToHold() {
+        new TiledPaper().getImage(new Rectangle(0, 0, 50000, 50000));
+    }
+}
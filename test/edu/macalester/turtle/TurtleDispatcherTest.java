@@ -0,0 +1,170 @@
+package edu.macalester.turtle;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import edu.macalester.turtle.TurtleDispatcher.Backpressure;
+
+public class TurtleDispatcherTest {
+    @Test
+    public void blockingMirrorsSeeEveryEvent() {
+        Turtle turtle = new Turtle(10, 20);
+        EventLog original = new EventLog();
+        turtle.addObserver(original);
+        TurtleDispatcher dispatcher = new TurtleDispatcher(turtle, 64);  // small, so the turtle has to wait
+        EventLog mirrored = new EventLog();
+        dispatcher.createMirror(Backpressure.BLOCK).addObserver(mirrored);
+        
+        drive(turtle, 5000);
+        dispatcher.close();
+        assertEquals(original.events, mirrored.events);
+    }
+    
+    @Test
+    public void droppingMirrorsCatchUp() {
+        Turtle turtle = new Turtle(10, 20);
+        TurtleDispatcher dispatcher = new TurtleDispatcher(turtle, 64);
+        Turtle mirror = dispatcher.createMirror(Backpressure.DROP);
+        final EventLog mirrored = new EventLog();
+        mirror.addObserver(new EventLog() {
+            public void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) {
+                mirrored.turtleMoved(turtle, x0, y0, x1, y1);
+                try {
+                    Thread.sleep(1);  // much slower than the turtle
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        
+        drive(turtle, 5000);
+        dispatcher.close();
+        assertTrue(mirrored.events.size() < 5000);
+        assertEquals(turtle.getX(), mirror.getX(), 0);
+        assertEquals(turtle.getY(), mirror.getY(), 0);
+        assertEquals(turtle.getColor(), mirror.getColor());
+    }
+    
+    @Test
+    public void coalescingMirrorsKeepEveryMove() {
+        Turtle turtle = new Turtle(10, 20);
+        EventLog original = new EventLog();
+        turtle.addObserver(original);
+        TurtleDispatcher dispatcher = new TurtleDispatcher(turtle, 64);
+        EventLog mirrored = new EventLog();
+        Turtle mirror = dispatcher.createMirror(Backpressure.COALESCE);
+        mirror.addObserver(mirrored);
+        
+        drive(turtle, 5000);
+        dispatcher.close();
+        assertEquals(original.moves(), mirrored.moves());
+        assertEquals(turtle.getDirection(), mirror.getDirection(), 0.000001);
+        assertEquals(turtle.getColor(), mirror.getColor());
+    }
+    
+    @Test
+    public void idleMirrorsSleep() throws InterruptedException {
+        Turtle turtle = new Turtle(10, 20);
+        TurtleDispatcher dispatcher = new TurtleDispatcher(turtle);
+        final Thread[] mirrorThread = new Thread[1];
+        final CountDownLatch moved = new CountDownLatch(2);
+        dispatcher.createMirror(Backpressure.BLOCK).addObserver(new EventLog() {
+            public void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) {
+                mirrorThread[0] = Thread.currentThread();
+                moved.countDown();
+            }
+        });
+        
+        turtle.forward();
+        Thread.sleep(100);
+        assertEquals(Thread.State.WAITING, mirrorThread[0].getState());
+        
+        turtle.forward();  // wakes it
+        assertTrue(moved.await(5, TimeUnit.SECONDS));
+        dispatcher.close();
+        assertFalse(mirrorThread[0].isAlive());
+    }
+    
+    @Test
+    public void closeGivesUpOnStuckMirrors() throws InterruptedException {
+        Turtle turtle = new Turtle(10, 20);
+        TurtleDispatcher dispatcher = new TurtleDispatcher(turtle);
+        final CountDownLatch release = new CountDownLatch(1);
+        dispatcher.createMirror(Backpressure.BLOCK).addObserver(new EventLog() {
+            public void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) {
+                try {
+                    release.await();  // stands in for an observer waiting on the closing thread
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        
+        drive(turtle, 10);
+        assertFalse(dispatcher.drain(10, TimeUnit.MILLISECONDS));
+        assertFalse(dispatcher.close(50, TimeUnit.MILLISECONDS));
+        release.countDown();
+    }
+    
+    @Test
+    public void interruptingCloseStopsWaiting() throws InterruptedException {
+        Turtle turtle = new Turtle(10, 20);
+        TurtleDispatcher dispatcher = new TurtleDispatcher(turtle);
+        final CountDownLatch release = new CountDownLatch(1);
+        dispatcher.createMirror(Backpressure.BLOCK).addObserver(new EventLog() {
+            public void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        
+        drive(turtle, 10);
+        Thread.currentThread().interrupt();
+        dispatcher.close();
+        assertTrue(Thread.interrupted());
+        release.countDown();
+    }
+    
+    private static void drive(Turtle turtle, int steps) {
+        for(int n = 0; n < steps; n++) {
+            turtle.forward(0.1);
+            turtle.left(7);
+            turtle.right(3);
+            turtle.setColor(n % 2 == 0 ? Color.RED : Color.BLUE);
+        }
+    }
+    
+    private static class EventLog implements TurtleObserver {
+        final List<String> events = new ArrayList<String>();
+        
+        public void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) {
+            events.add("moved " + x0 + "," + y0 + " " + x1 + "," + y1 + " " + turtle.getColor());
+        }
+        
+        public void turtleTurned(Turtle turtle, double oldDir, double newDir) {
+            events.add("turned " + oldDir + " " + newDir);
+        }
+        
+        public void turtleChanged(Turtle turtle) {
+            events.add("changed " + turtle.getColor());
+        }
+        
+        List<String> moves() {
+            List<String> moves = new ArrayList<String>();
+            for(String event : events)
+                if(event.startsWith("moved"))
+                    moves.add(event);
+            return moves;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package edu.macalester.turtle;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TurtleRecorderTest {
+    @Test
+    public void replaysSameEvents() {
+        TurtleRecorder recorder = new TurtleRecorder();
+        EventLog original = new EventLog();
+        Turtle sally = new Turtle(200, 500, Color.MAGENTA);
+        Turtle fred = new Turtle(100, 200, Color.GREEN);
+        recorder.add(sally);
+        recorder.add(fred);
+        sally.addObserver(original);
+        fred.addObserver(original);
+        
+        sally.forward(2);
+        sally.left(90);
+        fred.forward(2.5);
+        sally.setColor(Color.BLUE);
+        fred.penUp();
+        fred.forward(1);
+        fred.setX(17);
+        fred.forward(1);
+        sally.setPenWidth(3);
+        sally.backward(0.5);
+        
+        EventLog replayed = new EventLog();
+        recorder.replay(replayed);
+        
+        assertEquals(10, recorder.getEventCount() - 2);  // plus initial state of each turtle
+        assertEquals(2, recorder.getTurtleCount());
+        assertEquals(original.events, replayed.events.subList(2, replayed.events.size()));
+    }
+    
+    @Test
+    public void replaysIntoAddedTurtles() {
+        TurtleRecorder recorder = new TurtleRecorder();
+        Turtle turtle = new Turtle(10, 20);
+        recorder.add(turtle);
+        turtle.right(30);
+        turtle.forward(3);
+        
+        Turtle[] copies = recorder.createTurtles();
+        recorder.replay(copies);
+        assertEquals(turtle.getX(), copies[0].getX(), 0);
+        assertEquals(turtle.getY(), copies[0].getY(), 0);
+        assertEquals(turtle.getDirection(), copies[0].getDirection(), 0.000001);
+    }
+    
+    private static class EventLog implements TurtleObserver {
+        private final List<String> events = new ArrayList<String>();
+        
+        public void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) {
+            events.add("moved " + x0 + " " + y0 + " " + x1 + " " + y1 + " " + turtle.isPenDown() + " " + turtle.getColor());
+        }
+        
+        public void turtleTurned(Turtle turtle, double oldDir, double newDir) {
+            events.add("turned " + oldDir + " " + newDir);
+        }
+        
+        public void turtleChanged(Turtle turtle) {
+            events.add("changed " + turtle.getX() + " " + turtle.getY() + " " + turtle.getPenWidth()
+                + " " + turtle.isPenDown() + " " + turtle.getColor());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package edu.macalester.turtle;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TurtleRecordingFileTest {
+    @Test
+    public void replaysWholeRecording() throws IOException {
+        TurtleRecorder recorder = recordSpirals(1000);
+        TurtleRecordingFile file = save(recorder);
+        
+        Turtle[] fromMemory = recorder.createTurtles(), fromFile = file.createTurtles();
+        recorder.replay(fromMemory);
+        file.replay(fromFile);
+        
+        assertEquals(recorder.getEventCount(), file.getEventCount());
+        assertEquals(2, file.getTurtleCount());
+        assertSameState(fromMemory, fromFile);
+        file.close();
+    }
+    
+    @Test
+    public void seeksToFrames() throws IOException {
+        TurtleRecorder recorder = recordSpirals(100000);  // long enough for several keyframes
+        TurtleRecordingFile file = save(recorder);
+        assertEquals(100000, file.getFrameCount());
+        
+        Turtle[] everything = file.createTurtles();
+        file.replayFrames(everything, 0, 70000);
+        
+        Turtle[] seeked = file.createTurtles();
+        file.replayFrames(seeked, 69990, 70000);
+        assertSameState(everything, seeked);
+        
+        file.replayFrames(everything, 70000, 100000);
+        file.replay(seeked, file.getFrameStart(70000), file.getEventCount());
+        assertSameState(everything, seeked);
+        file.close();
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherFiles() throws IOException {
+        File tempFile = File.createTempFile("not-a-recording", ".bin");
+        tempFile.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(tempFile);
+        out.write(new byte[100]);
+        out.close();
+        new TurtleRecordingFile(tempFile.getPath());
+    }
+    
+    @Test
+    public void closesRejectedFiles() throws IOException {
+        File openFiles = new File("/proc/self/fd");
+        if(!openFiles.isDirectory())
+            return;  // no way to count open files on this platform
+        
+        File tempFile = File.createTempFile("not-a-recording", ".bin");
+        tempFile.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(tempFile);
+        out.write(new byte[100]);
+        out.close();
+        
+        int before = openFiles.list().length;
+        for(int n = 0; n < 50; n++)
+            try {
+                new TurtleRecordingFile(tempFile.getPath());
+                fail("accepted a file that is not a recording");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        assertTrue(openFiles.list().length < before + 10);
+    }
+    
+    private static TurtleRecorder recordSpirals(int frames) {
+        TurtleRecorder recorder = new TurtleRecorder();
+        Turtle sally = new Turtle(200, 500, Color.MAGENTA);
+        Turtle fred = new Turtle(100, 200, Color.GREEN);
+        recorder.add(sally);
+        recorder.add(fred);
+        for(int n = 0; n < frames; n++) {
+            recorder.markFrame();
+            sally.forward(0.1);
+            sally.left(n * 0.01);
+            if(n % 1000 == 0)
+                fred.setColor(new Color(n % 256, 0, 0));
+            fred.forward(0.2);
+            fred.right(7);
+        }
+        return recorder;
+    }
+    
+    private static TurtleRecordingFile save(TurtleRecorder recorder) throws IOException {
+        File tempFile = File.createTempFile("turtle-recording", ".bin");
+        tempFile.deleteOnExit();
+        recorder.save(tempFile.getPath());
+        return new TurtleRecordingFile(tempFile.getPath());
+    }
+    
+    private static void assertSameState(Turtle[] expected, Turtle[] actual) {
+        for(int n = 0; n < expected.length; n++) {
+            assertEquals(expected[n].getX(), actual[n].getX(), 0);
+            assertEquals(expected[n].getY(), actual[n].getY(), 0);
+            assertEquals(expected[n].getDirection(), actual[n].getDirection(), 0.000001);
+            assertEquals(expected[n].getColor(), actual[n].getColor());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package edu.macalester.turtle;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+
+import org.junit.Test;
+
+public class TurtleSpriteTest {
+    @Test
+    public void repaintsWhenPenChangesInPlace() {
+        Turtle turtle = new Turtle(10, 20);
+        TurtleSprite sprite = new TurtleSprite(turtle);
+        sprite.takeRepaintNeeded();
+        
+        turtle.setColor(Color.RED);
+        assertTrue(sprite.sync());
+        assertTrue(sprite.takeRepaintNeeded());
+        assertFalse(sprite.takeRepaintNeeded());
+        
+        turtle.penUp();
+        assertTrue(sprite.sync());
+        assertTrue(sprite.takeRepaintNeeded());
+        
+        turtle.penDown();
+        assertTrue(sprite.sync());
+        assertTrue(sprite.takeRepaintNeeded());
+    }
+    
+    @Test
+    public void ignoresChangesItDoesNotShow() {
+        Turtle turtle = new Turtle(10, 20);
+        TurtleSprite sprite = new TurtleSprite(turtle);
+        sprite.takeRepaintNeeded();
+        
+        turtle.setStepSize(5);
+        turtle.setColor(Color.BLACK);  // same as before
+        assertFalse(sprite.sync());
+        assertFalse(sprite.takeRepaintNeeded());
+        
+        turtle.penUp();
+        turtle.setColor(Color.RED);  // not shown while the pen is up
+        sprite.sync();
+        sprite.takeRepaintNeeded();
+        turtle.setColor(Color.BLUE);
+        assertFalse(sprite.sync());
+    }
+}
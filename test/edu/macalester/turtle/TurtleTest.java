@@ -0,0 +1,194 @@
+package edu.macalester.turtle;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TurtleTest {
+    private static final byte[] OPS = {
+        Turtle.FORWARD, Turtle.LEFT, Turtle.FORWARD, Turtle.PEN_UP, Turtle.FORWARD,
+        Turtle.SCALE_STEP, Turtle.RIGHT, Turtle.PEN_DOWN, Turtle.FORWARD, Turtle.FORWARD };
+    private static final double[] ARGS = { 2, 90, 1.5, 0, -1, 0.5, 45, 0, 3, 1 };
+    
+    @Test
+    public void executeMatchesIndividualCommands() {
+        Turtle stepped = new Turtle(10, 20, Color.RED);
+        EventLog steppedLog = new EventLog();
+        stepped.addObserver(steppedLog);
+        stepped.forward(2);
+        stepped.left(90);
+        stepped.forward(1.5);
+        stepped.penUp();
+        stepped.backward(1);
+        stepped.scaleStepBy(0.5);
+        stepped.right(45);
+        stepped.penDown();
+        stepped.forward(3);
+        stepped.forward(1);
+        
+        Turtle executed = new Turtle(10, 20, Color.RED);
+        EventLog executedLog = new EventLog();
+        executed.addObserver(executedLog);
+        executed.execute(OPS, ARGS, 0, OPS.length);
+        
+        assertEquals(steppedLog.events, executedLog.events);
+        assertEquals(stepped.getX(), executed.getX(), 0);
+        assertEquals(stepped.getY(), executed.getY(), 0);
+        assertEquals(stepped.getDirection(), executed.getDirection(), 0);
+        assertEquals(stepped.getStepSize(), executed.getStepSize(), 0);
+    }
+    
+    @Test
+    public void notifiesPathObserversOncePerPath() {
+        Turtle turtle = new Turtle(0, 0);
+        turtle.setStepSize(1);
+        PathLog log = new PathLog();
+        turtle.addObserver(log);
+        turtle.execute(OPS, ARGS, 0, OPS.length);
+        
+        assertEquals(2, log.paths.size());
+        assertEquals("0.0,0.0 2.0,0.0 2.0,-1.5", log.paths.get(0));
+        assertEquals(5, log.changes);  // pen up, pen-up move, scale, turn, pen down
+    }
+    
+    @Test
+    public void snapshotsPenStyle() {
+        Turtle turtle = new Turtle(0, 0, Color.RED);
+        PenStyle style = turtle.getPenStyle();
+        assertSame(style, turtle.getPenStyle());
+        assertEquals(Color.RED, style.getColor());
+        assertEquals(1, style.getWidth(), 0);
+        
+        turtle.setPenWidth(3);
+        assertNotSame(style, turtle.getPenStyle());
+        assertEquals(3, turtle.getPenStyle().getWidth(), 0);
+        assertEquals(new PenStyle(Color.RED, 3), turtle.getPenStyle());
+    }
+    
+    @Test
+    public void splitsLongPaths() {
+        int count = 10000;
+        byte[] ops = new byte[count];
+        double[] args = new double[count];
+        Arrays.fill(ops, Turtle.FORWARD);
+        Arrays.fill(args, 1);
+        
+        Turtle turtle = new Turtle(0, 0);
+        turtle.setStepSize(1);
+        PathLog log = new PathLog();
+        turtle.addObserver(log);
+        turtle.execute(ops, args, 0, count);
+        
+        assertEquals(count, log.segments);
+        assertEquals(count, turtle.getX(), 0);
+    }
+    
+    @Test
+    public void batchesChanges() {
+        Turtle turtle = new Turtle(0, 0);
+        turtle.setStepSize(1);
+        EventLog log = new EventLog();
+        turtle.addObserver(log);
+        
+        turtle.beginChanges();
+        turtle.setStepSize(2);
+        turtle.beginChanges();
+        turtle.penUp();
+        turtle.commitChanges();
+        assertTrue(log.events.isEmpty());
+        turtle.setStepSize(3);
+        turtle.commitChanges();
+        assertEquals(Arrays.asList("changed 3.0 false"), log.events);
+    }
+    
+    @Test
+    public void reportsBatchedChangesBeforeMoving() {
+        Turtle turtle = new Turtle(0, 0);
+        turtle.setStepSize(1);
+        EventLog log = new EventLog();
+        turtle.addObserver(log);
+        
+        turtle.beginChanges();
+        turtle.penUp();
+        turtle.setStepSize(2);
+        turtle.forward();
+        turtle.penDown();
+        turtle.right(90);
+        turtle.commitChanges();
+        assertEquals(
+            Arrays.asList("changed 2.0 false", "moved 0.0,0.0 2.0,0.0 false", "changed 2.0 true", "turned 0.0 90.0"),
+            log.events);
+    }
+    
+    @Test
+    public void executeCombinesConsecutiveChanges() {
+        Turtle turtle = new Turtle(0, 0);
+        EventLog log = new EventLog();
+        turtle.addObserver(log);
+        turtle.execute(
+            new byte[] { Turtle.PEN_UP, Turtle.SCALE_STEP, Turtle.PEN_DOWN, Turtle.SCALE_STEP },
+            new double[] { 0, 0.5, 0, 2 }, 0, 4);
+        assertEquals(Arrays.asList("changed 30.0 true"), log.events);
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void rejectsUnmatchedCommit() {
+        new Turtle(0, 0).commitChanges();
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownOpcodes() {
+        new Turtle(0, 0).execute(new byte[] { 99 }, new double[1], 0, 1);
+    }
+    
+    private static class EventLog implements TurtleObserver {
+        private final List<String> events = new ArrayList<String>();
+        
+        public void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) {
+            events.add("moved " + x0 + "," + y0 + " " + x1 + "," + y1 + " " + turtle.isPenDown());
+        }
+        
+        public void turtleTurned(Turtle turtle, double oldDir, double newDir) {
+            events.add("turned " + oldDir + " " + newDir);
+        }
+        
+        public void turtleChanged(Turtle turtle) {
+            events.add("changed " + turtle.getStepSize() + " " + turtle.isPenDown());
+        }
+    }
+    
+    private static class PathLog implements TurtlePathObserver {
+        private final List<String> paths = new ArrayList<String>();
+        private int segments, changes;
+        
+        public void turtleDrewPath(Turtle turtle, PenStyle pen, double[] points, int pointCount) {
+            assertTrue(turtle.isPenDown());
+            assertSame(turtle.getPenStyle(), pen);
+            StringBuilder path = new StringBuilder();
+            for(int n = 0; n < pointCount; n++)
+                path.append(n > 0 ? " " : "")
+                    .append(Math.round(points[n * 2] * 2) / 2.0).append(',')
+                    .append(Math.round(points[n * 2 + 1] * 2) / 2.0);
+            if(pointCount <= 3)
+                paths.add(path.toString());
+            segments += pointCount - 1;
+        }
+        
+        public void turtleMoved(Turtle turtle, double x0, double y0, double x1, double y1) {
+            fail("moves should be reported as paths");
+        }
+        
+        public void turtleTurned(Turtle turtle, double oldDir, double newDir) {
+            fail("turns should be reported as paths");
+        }
+        
+        public void turtleChanged(Turtle turtle) {
+            changes++;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package edu.macalester.turtle;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+public class VectorRendererTest {
+    /**
+     * Pixels darker than this are solid ink, which the other image must also have within a pixel.
+     */
+    private static final int SOLID_INK = 128;
+
+    /**
+     * Pixels darker than this have any visible ink. Tiny raster segments overlap at their ends and
+     * come out darker than one polyline, so only solid ink is required to match.
+     */
+    private static final int ANY_INK = 250;
+
+    @Test
+    public void keepsCurvesMadeOfTinySegments() {
+        SegmentIndex index = new SegmentIndex();
+        ImageTurtleRenderer raster = new ImageTurtleRenderer(400, 400);
+        Turtle turtle = new Turtle(200, 100, Color.BLACK);
+        index.add(turtle);
+        raster.add(turtle);
+
+        // A radius 100 circle, in steps well under the simplification tolerance
+        int steps = 3142;
+        turtle.setStepSize(1);
+        turtle.setDirection(0);
+        for(int n = 0; n < steps; n++) {
+            turtle.forward(2 * Math.PI * 100 / steps);
+            turtle.right(360.0 / steps);
+        }
+
+        BufferedImage vector = new VectorRenderer(index).renderImage(new Rectangle2D.Double(0, 0, 400, 400), 1);
+        assertSameInk(raster.getImage(), vector);
+    }
+
+    @Test
+    public void keepsCurvesWhenZoomedOut() {
+        SegmentIndex index = new SegmentIndex();
+        Turtle turtle = new Turtle(0, 0, Color.BLACK);
+        index.add(turtle);
+        turtle.setPenWidth(10);  // a pixel wide at a tenth of full size
+        turtle.setStepSize(1);
+        for(int n = 0; n < 4000; n++) {
+            turtle.forward(1);
+            turtle.right(360.0 / 2000);  // two laps of a radius 318 circle
+        }
+
+        Rectangle2D area = new Rectangle2D.Double(-400, -400, 800, 800);
+        double zoom = 0.1;
+        BufferedImage vector = new VectorRenderer(index).renderImage(area, zoom);
+
+        BufferedImage raster = new BufferedImage(vector.getWidth(), vector.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = raster.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, raster.getWidth(), raster.getHeight());
+        TurtlePaper.enableAntialiasing(g);
+        g.scale(zoom, zoom);
+        g.translate(-area.getX(), -area.getY());
+        g.translate(0.5 / zoom, 0.5 / zoom);  // half-pixel offset, as in the renderer
+        g.setStroke(TurtlePaper.createStroke(10));
+        g.setPaint(Color.BLACK);
+        for(int n = 0; n < index.getSegmentCount(); n++)
+            g.draw(index.getSegment(n));  // each segment stroked on its own, as on raster paper
+        g.dispose();
+
+        assertSameInk(raster, vector);
+    }
+
+    /**
+     * Checks that both images have solid ink in the same places, give or take a pixel, and about
+     * the same amount of visible ink overall.
+     */
+    private static void assertSameInk(BufferedImage expected, BufferedImage actual) {
+        int expectedInk = countInk(expected);
+        assertTrue(expectedInk > 200);
+        assertEquals(expectedInk, countInk(actual), expectedInk / 10);
+        assertEquals(0, countSolidInkMissing(expected, actual));
+        assertEquals(0, countSolidInkMissing(actual, expected));
+    }
+
+    private static int countInk(BufferedImage image) {
+        int count = 0;
+        for(int y = 0; y < image.getHeight(); y++)
+            for(int x = 0; x < image.getWidth(); x++)
+                if(isInk(image, x, y, ANY_INK))
+                    count++;
+        return count;
+    }
+
+    /**
+     * Counts solid ink pixels in the first image with no visible ink within a pixel of them in
+     * the second.
+     */
+    private static int countSolidInkMissing(BufferedImage image, BufferedImage other) {
+        int count = 0;
+        for(int y = 1; y < image.getHeight() - 1; y++)
+            for(int x = 1; x < image.getWidth() - 1; x++) {
+                if(!isInk(image, x, y, SOLID_INK))
+                    continue;
+                boolean found = false;
+                for(int dy = -1; dy <= 1 && !found; dy++)
+                    for(int dx = -1; dx <= 1 && !found; dx++)
+                        found = isInk(other, x + dx, y + dy, ANY_INK);
+                if(!found)
+                    count++;
+            }
+        return count;
+    }
+
+    private static boolean isInk(BufferedImage image, int x, int y, int threshold) {
+        return (image.getRGB(x, y) & 0xFF) < threshold;
+    }
+}